@@ -0,0 +1,78 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONArray;
+
+// Outcome of an analysis results request: the recommendations with the validators they were served with,
+// or notModified if Densify confirmed that the analysis the request was conditional on is still current.
+// A failed request has neither, only its status code.
+public class AnalysisDownload {
+
+    private final JSONArray recommendations;
+    private final AnalysisValidators validators;
+    private final int statusCode;
+    private final long estimatedBytes;
+    // Bytes of the response body received and decoded, -1 if unknown
+    private final long wireBytes;
+    private final long decodedBytes;
+
+    private AnalysisDownload(JSONArray recommendations, AnalysisValidators validators, int statusCode, long estimatedBytes,
+                             long wireBytes, long decodedBytes) {
+        this.recommendations = recommendations;
+        this.validators = validators;
+        this.statusCode = statusCode;
+        this.estimatedBytes = estimatedBytes;
+        this.wireBytes = wireBytes;
+        this.decodedBytes = decodedBytes;
+    }
+
+    public static AnalysisDownload of(JSONArray recommendations, AnalysisValidators validators) {
+        return of(recommendations, validators, recommendations == null ? 0 : AnalysisResultReader.estimateBytes(recommendations));
+    }
+
+    // estimatedBytes as counted by the AnalysisResultReader that parsed the recommendations
+    public static AnalysisDownload of(JSONArray recommendations, AnalysisValidators validators, long estimatedBytes) {
+        return new AnalysisDownload(recommendations, validators, 200, estimatedBytes, -1, -1);
+    }
+
+    public static AnalysisDownload notModified(AnalysisValidators validators) {
+        return new AnalysisDownload(null, validators, 304, 0, -1, -1);
+    }
+
+    public static AnalysisDownload failed(int statusCode) {
+        return new AnalysisDownload(null, null, statusCode, 0, -1, -1);
+    }
+
+    // Same outcome with the transfer sizes of the response it came from
+    public AnalysisDownload withTransferSizes(long wireBytes, long decodedBytes) {
+        return new AnalysisDownload(recommendations, validators, statusCode, estimatedBytes, wireBytes, decodedBytes);
+    }
+
+    public JSONArray getRecommendations() {
+        return recommendations;
+    }
+
+    public AnalysisValidators getValidators() {
+        return validators;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public long getWireBytes() {
+        return wireBytes;
+    }
+
+    public long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    public boolean isNotModified() {
+        return statusCode == 304;
+    }
+
+    // The results URL is gone, e.g. because the analysis was recreated under a new id
+    public boolean isNotFound() {
+        return statusCode == 404;
+    }
+}
@@ -0,0 +1,63 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.AmazonWebServicesClientProxy;
+import com.amazonaws.cloudformation.proxy.Logger;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Remembers where the analysis results of an account are, so fetches skip the analysis lookup in Densify.
+// Kept for the lifetime of the container and in the parameter Densify_AnalysisResults_<account>, shared by all
+// resources of the account. The results URL only changes if the analysis is recreated, a 404 on it invalidates both.
+public class AnalysisLocator {
+
+    private static final String PARAM_NAME_PREFIX = "Densify_AnalysisResults_";
+
+    private static final Map<String, String> resultsUrls = new ConcurrentHashMap<>();
+
+    private static String key(String densifyUrl, String awsAccount) {
+        return densifyUrl + "|" + awsAccount;
+    }
+
+    public static String getParamName(String awsAccount) {
+        return PARAM_NAME_PREFIX + awsAccount;
+    }
+
+    // URL of the analysis results of the account, or null if the analysis could not be found.
+    // Without a proxy only the container's own copy is used.
+    public static String locate(DensifyAPI densify, String awsAccount, AmazonWebServicesClientProxy proxy, Logger logger) {
+        String key = key(densify.getDensifyUrl(), awsAccount);
+        String resultsUrl = resultsUrls.get(key);
+        if (resultsUrl != null) {
+            return resultsUrl;
+        }
+
+        if (proxy != null) {
+            resultsUrl = Helper.retrieveFromParameterStore(getParamName(awsAccount), proxy, logger);
+            // The parameter may point to another Densify instance if the connection was changed
+            if (resultsUrl != null && resultsUrl.startsWith(densify.getDensifyUrl())) {
+                resultsUrls.put(key, resultsUrl);
+                return resultsUrl;
+            }
+        }
+
+        resultsUrl = densify.locateAnalysisResults(awsAccount, logger);
+        if (resultsUrl != null) {
+            resultsUrls.put(key, resultsUrl);
+            if (proxy != null) {
+                Helper.writeToParameterStore(getParamName(awsAccount), resultsUrl, false, proxy, logger);
+            }
+        }
+        return resultsUrl;
+    }
+
+    // The results URL returned 404, the next locate asks Densify again
+    public static void invalidate(DensifyAPI densify, String awsAccount, AmazonWebServicesClientProxy proxy, Logger logger) {
+        resultsUrls.remove(key(densify.getDensifyUrl(), awsAccount));
+        if (proxy != null) {
+            Helper.deleteFromParameterStore(Collections.singletonList(getParamName(awsAccount)), proxy, logger);
+        }
+        logger.log("Forgot location of the analysis results for " + awsAccount);
+    }
+}
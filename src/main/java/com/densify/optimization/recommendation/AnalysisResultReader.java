@@ -0,0 +1,156 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Parses analysis results straight from the response stream, one recommendation at a time,
+// instead of building the whole response as a String and a JSONArray first.
+public class AnalysisResultReader {
+
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    // Rough heap cost of a JSONObject with its map, and of one key/value pair on top of the characters
+    private static final int OBJECT_OVERHEAD_BYTES = 64;
+    private static final int FIELD_OVERHEAD_BYTES = 48;
+
+    private final JSONTokener tokener;
+    private boolean started = false;
+    private boolean finished = false;
+    private long estimatedBytes = 0;
+
+    public AnalysisResultReader(InputStream in) {
+        this.tokener = new JSONTokener(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+    }
+
+    // Returns the next recommendation reduced to RecommendationFields.ANALYSIS, or null once the end of the results is reached.
+    // A response that is a single object instead of an array (e.g. an error) is returned as is.
+    public JSONObject next() {
+        if (finished) {
+            return null;
+        }
+        if (!started) {
+            started = true;
+            char first = tokener.nextClean();
+            if (first == '{') {
+                tokener.back();
+                finished = true;
+                return (JSONObject) tokener.nextValue();
+            }
+            if (first != '[') {
+                throw tokener.syntaxError("Analysis results must be a JSON array");
+            }
+            if (tokener.nextClean() == ']') {
+                finished = true;
+                return null;
+            }
+            tokener.back();
+        } else {
+            char separator = tokener.nextClean();
+            if (separator == ']') {
+                finished = true;
+                return null;
+            }
+            if (separator != ',') {
+                throw tokener.syntaxError("Expected ',' or ']' between recommendations");
+            }
+        }
+
+        Object value = tokener.nextValue();
+        if (!(value instanceof JSONObject)) {
+            throw tokener.syntaxError("Recommendation must be a JSON object");
+        }
+        JSONObject recommendation = new JSONObject((JSONObject) value, RecommendationFields.ANALYSIS);
+        estimatedBytes += estimateBytes(recommendation);
+        return recommendation;
+    }
+
+    // Estimated heap size of the recommendations returned so far
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    // Estimated heap size of a recommendation, strings count two bytes per character
+    public static long estimateBytes(JSONObject recommendation) {
+        long bytes = OBJECT_OVERHEAD_BYTES;
+        for (String key : recommendation.keySet()) {
+            Object value = recommendation.opt(key);
+            bytes += FIELD_OVERHEAD_BYTES + 2L * key.length();
+            if (value instanceof JSONArray) {
+                JSONArray values = (JSONArray) value;
+                for (int i = 0; i < values.length(); i++) {
+                    bytes += FIELD_OVERHEAD_BYTES + 2L * String.valueOf(values.opt(i)).length();
+                }
+            } else if (value instanceof String) {
+                bytes += 2L * ((String) value).length();
+            }
+        }
+        return bytes;
+    }
+
+    public static long estimateBytes(JSONArray recommendations) {
+        long bytes = OBJECT_OVERHEAD_BYTES;
+        for (int i = 0; i < recommendations.length(); i++) {
+            bytes += estimateBytes(recommendations.getJSONObject(i));
+        }
+        return bytes;
+    }
+
+    // Next page of at most pageSize recommendations, or null once the end of the results is reached
+    public JSONArray nextPage(int pageSize) {
+        JSONArray page = new JSONArray();
+        JSONObject recommendation;
+        while (page.length() < pageSize && (recommendation = next()) != null) {
+            page.put(recommendation);
+        }
+        return page.length() == 0 ? null : page;
+    }
+
+    // Pages of the results in order. Only the page handed out last is referenced, so a caller that does not keep
+    // earlier pages holds at most pageSize recommendations no matter how large the analysis is.
+    public Iterator<JSONArray> pages(int pageSize) {
+        final int size = Math.max(1, pageSize);
+        return new Iterator<JSONArray>() {
+            // Read ahead by hasNext, released again by next
+            private JSONArray page;
+
+            @Override
+            public boolean hasNext() {
+                if (page == null) {
+                    page = nextPage(size);
+                }
+                return page != null;
+            }
+
+            @Override
+            public JSONArray next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                JSONArray current = page;
+                page = null;
+                return current;
+            }
+        };
+    }
+
+    // Reads all recommendations, or stops right after the one named stopAtName when it is not null
+    public JSONArray readAll(String stopAtName) {
+        JSONArray recommendations = new JSONArray();
+        JSONObject recommendation;
+        while ((recommendation = next()) != null) {
+            recommendations.put(recommendation);
+            if (stopAtName != null && stopAtName.equals(recommendation.optString("name", null))) {
+                break;
+            }
+        }
+        return recommendations;
+    }
+}
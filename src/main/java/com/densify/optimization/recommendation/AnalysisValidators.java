@@ -0,0 +1,85 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+// HTTP validators of a downloaded analysis. Sent back with the next download so that Densify can answer
+// 304 Not Modified instead of the full results when the analysis has not run since.
+public class AnalysisValidators {
+
+    private final String etag;
+    private final String lastModified;
+
+    public AnalysisValidators(String etag, String lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    // Validators of a response, or null if the server did not send any
+    public static AnalysisValidators of(DensifyResponse response) {
+        String etag = response.getHeader("ETag");
+        String lastModified = response.getHeader("Last-Modified");
+        if (etag == null && lastModified == null) {
+            return null;
+        }
+        return new AnalysisValidators(etag, lastModified);
+    }
+
+    public static AnalysisValidators fromJson(JSONObject json) {
+        if (json == null || (!json.has("etag") && !json.has("lastModified"))) {
+            return null;
+        }
+        return new AnalysisValidators(json.optString("etag", null), json.optString("lastModified", null));
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        if (etag != null) {
+            json.put("etag", etag);
+        }
+        if (lastModified != null) {
+            json.put("lastModified", lastModified);
+        }
+        return json;
+    }
+
+    // Request headers with the conditional headers of these validators added
+    public Map<String, String> addTo(Map<String, String> headers) {
+        Map<String, String> conditional = new LinkedHashMap<>(headers);
+        if (etag != null) {
+            conditional.put("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            conditional.put("If-Modified-Since", lastModified);
+        }
+        return conditional;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AnalysisValidators)) {
+            return false;
+        }
+        AnalysisValidators other = (AnalysisValidators) o;
+        return Objects.equals(etag, other.etag) && Objects.equals(lastModified, other.lastModified);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(etag, lastModified);
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,69 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.cloudformation.proxy.AmazonWebServicesClientProxy;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
+import com.amazonaws.services.securitytoken.model.GetCallerIdentityRequest;
+import com.amazonaws.services.securitytoken.model.GetCallerIdentityResult;
+import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagement;
+import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagementClientBuilder;
+
+// Clients are created once per container and shared by all invocations. Credentials are injected
+// per request by the proxy, so the clients themselves carry no caller specific state.
+public class AwsClients {
+
+    private static final int MAX_CONNECTIONS = 16;
+    private static final long CONNECTION_MAX_IDLE_MILLIS = 60 * 1000;
+
+    private static volatile AWSSimpleSystemsManagement ssmClient;
+    private static volatile AWSSecurityTokenService stsClient;
+    private static volatile String awsAccount;
+
+    private static ClientConfiguration clientConfiguration() {
+        return new ClientConfiguration()
+                .withMaxConnections(MAX_CONNECTIONS)
+                .withTcpKeepAlive(true)
+                .withConnectionMaxIdleMillis(CONNECTION_MAX_IDLE_MILLIS);
+    }
+
+    public static AWSSimpleSystemsManagement ssm() {
+        if (ssmClient == null) {
+            synchronized (AwsClients.class) {
+                if (ssmClient == null) {
+                    // Throttled calls are retried by ParameterStoreRetry within the invocation's retry budget
+                    ssmClient = AWSSimpleSystemsManagementClientBuilder.standard()
+                            .withClientConfiguration(clientConfiguration().withMaxErrorRetry(0))
+                            .build();
+                }
+            }
+        }
+        return ssmClient;
+    }
+
+    public static AWSSecurityTokenService sts() {
+        if (stsClient == null) {
+            synchronized (AwsClients.class) {
+                if (stsClient == null) {
+                    stsClient = AWSSecurityTokenServiceClientBuilder.standard()
+                            .withClientConfiguration(clientConfiguration())
+                            .build();
+                }
+            }
+        }
+        return stsClient;
+    }
+
+    // The account a container runs in never changes, so GetCallerIdentity is called once
+    public static String awsAccount(AmazonWebServicesClientProxy proxy) {
+        if (awsAccount == null) {
+            synchronized (AwsClients.class) {
+                if (awsAccount == null) {
+                    GetCallerIdentityResult result = proxy.injectCredentialsAndInvoke(new GetCallerIdentityRequest(), sts()::getCallerIdentity);
+                    awsAccount = result.getAccount();
+                }
+            }
+        }
+        return awsAccount;
+    }
+}
@@ -1,12 +1,26 @@
 package com.densify.optimization.recommendation;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+// State handed from one RecommendationPipeline stage to the next, so a re-invocation resumes where the previous
+// one stopped. Everything except stage and result can be recomputed, RecommendationPipeline drops those values
+// first when the context grows beyond its size limit.
 @Data
 @NoArgsConstructor
+@AllArgsConstructor
 @Builder
 public class CallbackContext {
-
+    // Next RecommendationPipeline stage to run, null before the first one
+    private String stage;
+    // Densify API token and the time it was issued, reused while it is valid instead of ping and authorize
+    private String apiToken;
+    private String tokenTimestamp;
+    private String awsAccount;
+    // Found by the LOCATE_ANALYSIS stage
+    private String analysisResultsUrl;
+    // Status left by the last stage for the handler to persist
+    private String result;
 }
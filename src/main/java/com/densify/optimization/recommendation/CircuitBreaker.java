@@ -0,0 +1,142 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per Densify host circuit breaker shared by all invocations of a container. The transport reports the outcome of
+// every call; once too many of the recent calls failed or were slow the circuit opens and handlers use their
+// fallback without contacting Densify. After the open period a single trial invocation is let through (half open),
+// and its calls decide whether the circuit closes again or stays open. The transport has no logger, state changes
+// are reported to the log of the next invocation that asks the circuit.
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static final int DEFAULT_FAILURE_RATE_PERCENT = 50;
+    public static final int DEFAULT_SLOW_CALL_MILLIS = 5 * 1000;
+    public static final int DEFAULT_OPEN_SECONDS = 30;
+    public static final int DEFAULT_WINDOW_SIZE = 10;
+    // The failure rate is only evaluated once the window holds this many calls
+    private static final int MINIMUM_CALLS = 5;
+
+    private static volatile int failureRatePercent = DEFAULT_FAILURE_RATE_PERCENT;
+    private static volatile long slowCallMillis = DEFAULT_SLOW_CALL_MILLIS;
+    private static volatile long openMillis = DEFAULT_OPEN_SECONDS * 1000L;
+    private static volatile int windowSize = DEFAULT_WINDOW_SIZE;
+
+    private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private State state = State.CLOSED;
+    // Ring buffer of the latest outcomes of a closed circuit, true for a failed or slow call
+    private boolean[] window = new boolean[windowSize];
+    private int position = 0;
+    private int calls = 0;
+    private int failures = 0;
+    private long stateChangedAt = 0;
+    // State last written to a handler log
+    private State reportedState = State.CLOSED;
+
+    CircuitBreaker() {
+    }
+
+    public static CircuitBreaker forUrl(String url) {
+        return breakers.computeIfAbsent(TransportRegistry.hostKey(url), host -> new CircuitBreaker());
+    }
+
+    public static void configure(DensifyAPI densify) {
+        configure(densify.getIntOption("CircuitFailureRatePercent", DEFAULT_FAILURE_RATE_PERCENT),
+                densify.getIntOption("CircuitSlowCallMillis", DEFAULT_SLOW_CALL_MILLIS),
+                densify.getIntOption("CircuitOpenSeconds", DEFAULT_OPEN_SECONDS),
+                densify.getIntOption("CircuitWindowSize", DEFAULT_WINDOW_SIZE));
+    }
+
+    public static void configure(int failureRate, long slowCallThresholdMillis, long openSeconds, int windowCallCount) {
+        failureRatePercent = Math.min(100, Math.max(1, failureRate));
+        slowCallMillis = Math.max(1, slowCallThresholdMillis);
+        openMillis = Math.max(0, openSeconds) * 1000L;
+        windowSize = Math.max(1, windowCallCount);
+    }
+
+    // Called by the transport for every call that reached or tried to reach the host
+    public static void recordCall(String url, long latencyMillis, boolean failed) {
+        forUrl(url).record(latencyMillis, failed);
+    }
+
+    // True if the caller may contact Densify. While half open only one caller at a time gets through.
+    public synchronized boolean allowRequest() {
+        long now = System.currentTimeMillis();
+        switch (state) {
+            case OPEN:
+                if (now - stateChangedAt < openMillis) {
+                    return false;
+                }
+                transition(State.HALF_OPEN, now);
+                return true;
+            case HALF_OPEN:
+                // A trial that never reported back, e.g. because its invocation timed out, is replaced
+                if (now - stateChangedAt < openMillis) {
+                    return false;
+                }
+                stateChangedAt = now;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    // Same as above, logs how the state changed since it was last reported
+    public synchronized boolean allowRequest(Logger logger) {
+        boolean allowed = allowRequest();
+        if (state != reportedState) {
+            logger.log("Densify circuit changed from " + reportedState + " to " + state);
+            reportedState = state;
+        }
+        return allowed;
+    }
+
+    synchronized void record(long latencyMillis, boolean failed) {
+        boolean bad = failed || latencyMillis > slowCallMillis;
+        long now = System.currentTimeMillis();
+        switch (state) {
+            case HALF_OPEN:
+                transition(bad ? State.OPEN : State.CLOSED, now);
+                break;
+            case CLOSED:
+                if (calls == window.length && window[position]) {
+                    failures--;
+                }
+                window[position] = bad;
+                position = (position + 1) % window.length;
+                calls = Math.min(calls + 1, window.length);
+                if (bad) {
+                    failures++;
+                }
+                if (calls >= Math.min(MINIMUM_CALLS, window.length) && failures * 100 >= failureRatePercent * calls) {
+                    transition(State.OPEN, now);
+                }
+                break;
+            default:
+                // Calls that were already running when the circuit opened
+                break;
+        }
+    }
+
+    private void transition(State newState, long now) {
+        state = newState;
+        stateChangedAt = now;
+        if (newState == State.CLOSED) {
+            window = new boolean[windowSize];
+            position = 0;
+            calls = 0;
+            failures = 0;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
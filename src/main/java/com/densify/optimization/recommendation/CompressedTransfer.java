@@ -0,0 +1,111 @@
+package com.densify.optimization.recommendation;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+// Transparent gzip/deflate support for Densify responses. Response bodies are decompressed while they are read,
+// and the bytes received on the wire are counted against the bytes handed to the parser.
+public class CompressedTransfer {
+
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final AtomicLong totalWireBytes = new AtomicLong();
+    private static final AtomicLong totalDecodedBytes = new AtomicLong();
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    // Body stream handed to callers, adds the transfer sizes of the request to the totals once it is closed
+    private static class DecodedInputStream extends CountingInputStream {
+        private final CountingInputStream wire;
+        private boolean closed = false;
+
+        DecodedInputStream(InputStream decoded, CountingInputStream wire) {
+            super(decoded);
+            this.wire = wire;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                totalWireBytes.addAndGet(wire.count);
+                totalDecodedBytes.addAndGet(super.count);
+            }
+            super.close();
+        }
+    }
+
+    public static void requestCompression(HttpURLConnection connection) {
+        connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+    }
+
+    // Wraps a response body, decoding it according to its Content-Encoding
+    public static InputStream decode(InputStream raw, String contentEncoding, String requestUrl) throws IOException {
+        CountingInputStream wire = new CountingInputStream(raw);
+        InputStream decoded;
+        if (contentEncoding == null || contentEncoding.trim().isEmpty() || contentEncoding.trim().equalsIgnoreCase("identity")) {
+            decoded = wire;
+        } else if (contentEncoding.trim().equalsIgnoreCase("gzip") || contentEncoding.trim().equalsIgnoreCase("x-gzip")) {
+            decoded = new GZIPInputStream(wire);
+        } else if (contentEncoding.trim().equalsIgnoreCase("deflate")) {
+            decoded = new InflaterInputStream(wire);
+        } else {
+            throw new IOException("Unsupported Content-Encoding " + contentEncoding + " for " + requestUrl);
+        }
+        return new DecodedInputStream(decoded, wire);
+    }
+
+    // Bytes of a body returned by decode received on the wire so far, -1 for other streams
+    public static long wireBytesOf(InputStream body) {
+        return body instanceof DecodedInputStream ? ((DecodedInputStream) body).wire.count : -1;
+    }
+
+    // Bytes of a body returned by decode handed to the reader so far, -1 for other streams
+    public static long decodedBytesOf(InputStream body) {
+        return body instanceof DecodedInputStream ? ((CountingInputStream) body).count : -1;
+    }
+
+    public static long getTotalWireBytes() {
+        return totalWireBytes.get();
+    }
+
+    public static long getTotalDecodedBytes() {
+        return totalDecodedBytes.get();
+    }
+}
@@ -3,6 +3,10 @@ package com.densify.optimization.recommendation;
 import software.amazon.cloudformation.proxy.*;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 public class CreateHandler extends BaseHandler<CallbackContext> {
 
     @Override
@@ -12,6 +16,7 @@ public class CreateHandler extends BaseHandler<CallbackContext> {
             final CallbackContext callbackContext,
             final Logger logger) {
 
+        ParameterStoreRetry.beginInvocation();
         final ResourceModel model = request.getDesiredResourceState();
         logger.log("Creating Densify Recommendation resource for instance: " + model.getProvisioningID());
 
@@ -31,40 +36,81 @@ public class CreateHandler extends BaseHandler<CallbackContext> {
             Helper.setDensifyParameterName(model.getDensifyConnectionParameterName());
         }
 
-        JSONObject densifyConnection = Helper.getAndCheckDensifyInfo(proxy, logger);
-        if (densifyConnection.has("failed")) {
-            currentStatus = OperationStatus.FAILED;
-            msg = densifyConnection.getString("msg");
+        // Read everything this stage needs from ParameterStore in one round trip
+        final boolean firstInvocation = callbackContext == null || callbackContext.getStage() == null;
+        final RecommendationPipeline.Stage stage = RecommendationPipeline.stageOf(callbackContext);
+        final String awsAccount = Helper.retrieveAWSAccount(proxy);
+        // The connection is read by every stage, it also selects the layout of the recommendation parameter
+        List<String> paramNames = new ArrayList<>();
+        paramNames.add(Helper.getDensifyParameterName());
+        List<String> existingNames = ParameterNamespace.candidateNames(model.getProvisioningID(), false, awsAccount);
+        if (firstInvocation) {
+            paramNames.addAll(existingNames);
         }
-        // Parameter with same name should not exist
-        if (null != Helper.retrieveFromParameterStore(Helper.getParameterNamePrefix() + model.getProvisioningID(), proxy, logger)) {
-            currentStatus = OperationStatus.FAILED;
-            msg = "Parameter " + Helper.getParameterNamePrefix() + model.getProvisioningID() + " already exists!";
+        // Any stage may end up persisting the result, see below
+        if (model.getForceUpdate() != null) {
+            paramNames.add(Helper.getTimestampParamName());
         }
+        Map<String, String> parameters = Helper.retrieveFromParameterStore(paramNames, proxy, logger);
+        JSONObject densifyConnection = Helper.getAndCheckDensifyInfo(parameters.get(Helper.getDensifyParameterName()), logger);
+        final boolean hierarchical = ParameterNamespace.isHierarchical(densifyConnection);
+        final String recommendationParamName = ParameterNamespace.recommendationParamName(model.getProvisioningID(),
+                hierarchical, awsAccount);
 
-        // If was unable to retrieve Densify, or parameter already exists, then makes no sense to continue
-        if (OperationStatus.FAILED.equals(currentStatus)) {
-            return ProgressEvent.<ResourceModel, CallbackContext>builder().message(msg).status(currentStatus).build();
+        CallbackContext context = callbackContext;
+        if (stage != RecommendationPipeline.Stage.PERSIST) {
+            if (densifyConnection.has("failed")) {
+                currentStatus = OperationStatus.FAILED;
+                msg = densifyConnection.getString("msg");
+            }
+            // Parameter with same name should not exist, in either layout
+            String existingParamName = firstInvocation ? ParameterNamespace.findStored(existingNames, parameters) : null;
+            if (existingParamName != null) {
+                currentStatus = OperationStatus.FAILED;
+                msg = "Parameter " + existingParamName + " already exists!";
+            }
+
+            // If was unable to retrieve Densify, or parameter already exists, then makes no sense to continue
+            if (OperationStatus.FAILED.equals(currentStatus)) {
+                return ProgressEvent.<ResourceModel, CallbackContext>builder().message(msg).status(currentStatus).build();
+            }
+
+            if (firstInvocation && hierarchical && densifyConnection.optBoolean("MigrateParameters", false)) {
+                ParameterNamespace.migratePage(awsAccount, proxy, logger);
+            }
+
+            context = RecommendationPipeline.advance(callbackContext, densifyConnection, model, proxy, logger);
+            // A stage that reached the result, e.g. a match answered by the cached analysis, is persisted right away
+            if (RecommendationPipeline.stageOf(context) != RecommendationPipeline.Stage.PERSIST) {
+                return ProgressEvent.<ResourceModel, CallbackContext>builder()
+                        .resourceModel(model)
+                        .callbackContext(context)
+                        .callbackDelaySeconds(RecommendationPipeline.CALLBACK_DELAY_SECONDS)
+                        .status(OperationStatus.IN_PROGRESS)
+                        .build();
+            }
         }
 
-        JSONObject status = Helper.connectAndGetRecommendation(densifyConnection, model, proxy, logger);
+        JSONObject status = new JSONObject(context.getResult());
         if (status.has("failed") && !status.has("recommendation")) {
             currentStatus = OperationStatus.FAILED;
-            Helper.writeToParameterStore(Helper.getParameterNamePrefix() + model.getProvisioningID(),
-                    "failed to create", false, proxy);
+            Helper.writeToParameterStore(recommendationParamName, "failed to create", false, proxy, logger);
             logger.log("Failed to generate InstanceType for " + model.getProvisioningID());
         } else {
             JSONObject recommendation = status.getJSONObject("recommendation");
             Helper.setModelFields(model, recommendation);
-            Helper.writeToParameterStore(Helper.getParameterNamePrefix() + model.getProvisioningID(),
-                    recommendation.toString(), false, proxy);
+            Helper.writeToParameterStore(recommendationParamName, RecommendationCodec.encode(recommendation), false, proxy, logger);
 
             if (model.getForceUpdate() != null) {
-                Helper.updateDensifyRefreshParameter(proxy, logger);
+                Helper.updateDensifyRefreshParameter(parameters.get(Helper.getTimestampParamName()), proxy, logger);
             }
         }
         msg = status.getString("msg");
 
+        if (ParameterStoreRetry.getInvocationRetries() > 0) {
+            logger.log("Parameter Store retries: " + ParameterStoreRetry.getStatistics());
+        }
+
         return ProgressEvent.<ResourceModel, CallbackContext>builder()
                 .resourceModel(model)
                 .message(msg)
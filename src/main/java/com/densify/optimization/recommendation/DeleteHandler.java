@@ -2,6 +2,10 @@ package com.densify.optimization.recommendation;
 
 import software.amazon.cloudformation.proxy.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class DeleteHandler extends BaseHandler<CallbackContext> {
 
     @Override
@@ -11,24 +15,40 @@ public class DeleteHandler extends BaseHandler<CallbackContext> {
             final CallbackContext callbackContext,
             final Logger logger) {
 
+        ParameterStoreRetry.beginInvocation();
         final ResourceModel model = request.getDesiredResourceState();
         logger.log("Deleting records for " + model.getProvisioningID());
 
         OperationStatus status = OperationStatus.SUCCESS;
         String msg = null;
+        HandlerErrorCode errorCode = null;
         if (model.getPrimaryIdentifier() != null) {
-            String deleteStatus = Helper.deleteFromParameterStore(Helper.getParameterNamePrefix() + model.getProvisioningID(), proxy);
-            if (deleteStatus.equals("ParameterNotFound")) {
+            // The recommendation may be stored in either layout, both names and their verified parameters go in one
+            // DeleteParameters call
+            List<String> candidates = ParameterNamespace.candidateNames(model.getProvisioningID(), false,
+                    Helper.retrieveAWSAccount(proxy));
+            List<String> paramNames = new ArrayList<>(candidates);
+            for (String candidate : candidates) {
+                paramNames.add(ParameterNamespace.verifiedParamName(candidate));
+            }
+            List<String> deleted = Helper.deleteFromParameterStore(paramNames, proxy, logger);
+            if (deleted == null) {
+                status = OperationStatus.FAILED;
+                errorCode = HandlerErrorCode.ServiceInternalError;
+                msg = "Could not delete parameter for " + model.getProvisioningID();
+            } else if (Collections.disjoint(deleted, candidates)) {
                 status = OperationStatus.FAILED;
                 msg = "Already deleted parameter for " + model.getProvisioningID();
+            } else {
+                logger.log("Successfully deleted records for " + model.getProvisioningID());
             }
-            logger.log("Successfully deleted records for " + model.getProvisioningID());
         }
 
         return ProgressEvent.<ResourceModel, CallbackContext>builder()
                 .resourceModel(model)
                 .message(msg)
                 .status(status)
+                .errorCode(errorCode)
                 .build();
     }
 }
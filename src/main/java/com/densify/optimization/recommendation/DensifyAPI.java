@@ -6,14 +6,11 @@ import com.google.common.collect.ImmutableMap;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.UnknownHostException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DensifyAPI {
 
@@ -22,8 +19,13 @@ public class DensifyAPI {
     private final String densifyPassword;
     private String apiToken;
     private LocalDateTime timestamp;
+    private boolean pingSkipped = false;
+    // Optional tuning settings stored next to the credentials in the Densify connection parameter
+    private final JSONObject options;
 
     public DensifyAPI(JSONObject connectionInfo) {
+        this.options = connectionInfo;
+
         String url = connectionInfo.getString("DensifyUrl");
 
         //Fix densify URL in case if it does not start with https://
@@ -50,23 +52,47 @@ public class DensifyAPI {
         this.densifyUsername = densifyUsername;
         this.densifyPassword = densifyPassword;
         this.apiToken = null;
-    }
-
-    private void setApiToken(String apiToken) {
-        this.apiToken = apiToken;
-        this.timestamp = LocalDateTime.now();
+        this.options = new JSONObject();
     }
 
     public String getDensifyUrl() {
         return this.densifyUrl;
     }
 
+    public TokenCache.Token getToken() {
+        return apiToken == null ? null : new TokenCache.Token(apiToken, timestamp);
+    }
+
+    // Uses a token handed over from a previous invocation without contacting Densify
+    public void resumeWith(TokenCache.Token token) {
+        this.apiToken = token.getValue();
+        this.timestamp = token.getIssuedAt();
+        TokenCache.put(densifyUrl, densifyUsername, token);
+    }
+
+    public int getIntOption(String name, int defaultValue) {
+        return options.optInt(name, defaultValue);
+    }
+
+    public String getStringOption(String name, String defaultValue) {
+        return options.optString(name, defaultValue);
+    }
+
+    public boolean getBooleanOption(String name, boolean defaultValue) {
+        return options.optBoolean(name, defaultValue);
+    }
+
+    // Tags are resolved only for the matched recommendation unless TagResolution is set to "eager"
+    public boolean isLazyTagResolution() {
+        return !"eager".equalsIgnoreCase(getStringOption("TagResolution", "lazy"));
+    }
+
     private ImmutableMap<String, String> getCommonHeaders() {
         return ImmutableMap.of("Accept", "application/json",
                 "Authorization", "Bearer " + apiToken);
     }
 
-    private void updateDensifyInParameterStore(AmazonWebServicesClientProxy proxy) {
+    private void updateDensifyInParameterStore(AmazonWebServicesClientProxy proxy, Logger logger) {
         JSONObject densifyJson = new JSONObject()
                 .put("DensifyUrl", densifyUrl)
                 .put("DensifyUsername", densifyUsername)
@@ -74,11 +100,12 @@ public class DensifyAPI {
                 .put("apiToken", apiToken)
                 .put("timestamp", timestamp.toString());
 
-        Helper.writeToParameterStore("DensifyConnection", densifyJson.toString(), true, proxy);
+        Helper.writeToParameterStore("DensifyConnection", densifyJson.toString(), true, proxy, logger);
     }
 
     public String toString() {
-        JSONObject json = new JSONObject()
+        // Start from the stored connection info so that optional settings are preserved on write back
+        JSONObject json = new JSONObject(options.toString())
                 .put("DensifyUrl", densifyUrl)
                 .put("DensifyUsername", densifyUsername)
                 .put("DensifyPassword", densifyPassword);
@@ -100,11 +127,8 @@ public class DensifyAPI {
 
         int responseCode = -1;
         try {
-            URL requestURL = new URL(requestString);
-            HttpURLConnection connection = (HttpURLConnection) requestURL.openConnection();
-            connection.setRequestMethod("GET");
-
-            responseCode = connection.getResponseCode();
+            responseCode = TransportRegistry.forUrl(requestString)
+                    .send(DensifyRequest.get(requestString, ImmutableMap.of()), DensifyResponse::getStatusCode);
         } catch (UnknownHostException uhe) {
             logger.log("Unknown host " + requestString);
             return 404;
@@ -121,42 +145,21 @@ public class DensifyAPI {
         String authorizeRequest = densifyUrl + ":443/CIRBA/api/v2/authorize";
         JSONObject responseJson;
         try {
-            URL authUrl = new URL(authorizeRequest);
-            HttpURLConnection authConnection = (HttpURLConnection) authUrl.openConnection();
-
-            authConnection.setRequestMethod("POST");
-            authConnection.setRequestProperty("Accept", "application/json");
-            authConnection.setRequestProperty("Content-type", "application/json");
-            authConnection.setDoOutput(true);
-
             String reqBody = new JSONObject()
                     .put("userName", densifyUsername)
                     .put("pwd", densifyPassword)
                     .toString();
+            DensifyRequest request = DensifyRequest.post(authorizeRequest,
+                    ImmutableMap.of("Accept", "application/json", "Content-type", "application/json"), reqBody);
 
-            try (OutputStream os = authConnection.getOutputStream()) {
-                os.write(reqBody.getBytes("utf-8"));
-            }
-
-            int responseCode = authConnection.getResponseCode();
-
-            if (responseCode == 200) {
-                BufferedReader in = new BufferedReader(new InputStreamReader(authConnection.getInputStream()));
-
-                String inputLine;
-                StringBuffer response = new StringBuffer();
-
-                while ((inputLine = in.readLine()) != null) {
-                    response.append(inputLine);
+            responseJson = TransportRegistry.forUrl(authorizeRequest).send(request, response -> {
+                if (response.getStatusCode() == 200) {
+                    return new JSONObject(response.readBody());
                 }
-                in.close();
-
-                responseJson = new JSONObject(response.toString());
-            } else {
-                responseJson = new JSONObject()
-                        .put("status", responseCode)
+                return new JSONObject()
+                        .put("status", response.getStatusCode())
                         .put("message", "Something went wrong, could not authorize");
-            }
+            });
         } catch (Exception e) {
             logger.log(e.getMessage());
             responseJson = new JSONObject()
@@ -166,90 +169,155 @@ public class DensifyAPI {
         return responseJson;
     }
 
-    public JSONArray retrieveAnalysisResult(String awsAccount, Logger logger) {
+    // URL of the analysis results of the account, or null if the analysis could not be found
+    public String locateAnalysisResults(String awsAccount, Logger logger) {
         String requestPrefix = densifyUrl + "/CIRBA/api/v2";
 
         // First need to retrieve information about all analyses
         String analysisRequest = requestPrefix + "/analysis/cloud/aws?analysisName=" + awsAccount;
 
-        ImmutableMap<String, String> commonHeaders = ImmutableMap.of("Accept", "application/json",
-                "Authorization", "Bearer " + apiToken);
-
-        JSONArray accounts = Helper.getRequestHelper(analysisRequest, commonHeaders);
+        JSONArray accounts = Helper.getRequestHelper(analysisRequest, getCommonHeaders());
 
         if (accounts == null || accounts.length() < 1 || accounts.getJSONObject(0).has("ErrorMessage")) {
             logger.log("Something went wrong when trying to retrieve analysis info for account: " + awsAccount);
             return null;
         }
 
-        // Now get the recommendations
-        String recommendationsRequest = requestPrefix + accounts.getJSONObject(0).get("analysisResults").toString();
+        // analysisName is a filter, prefer the analysis that is named exactly like the account
+        JSONObject analysis = accounts.getJSONObject(0);
+        for (int i = 0; i < accounts.length(); i++) {
+            if (awsAccount.equals(accounts.getJSONObject(i).optString("analysisName"))) {
+                analysis = accounts.getJSONObject(i);
+                break;
+            }
+        }
+        return requestPrefix + analysis.get("analysisResults").toString();
+    }
 
-        return Helper.getRequestHelper(recommendationsRequest, commonHeaders);
+    public boolean isPingSkipped() {
+        return pingSkipped;
     }
 
     public Boolean checkAndUpdate(Logger logger) {
-        int pingResp = ping(densifyUrl, logger);
-        if (pingResp != 200) {
-            logger.log("Failed to ping Densify, ABORT!");
-            return null;
+        // Only probe the server if nothing has been heard from it for a while or the last call failed
+        long idleMillis = getIntOption("PingIdleSeconds", DensifyHealth.DEFAULT_PING_IDLE_SECONDS) * 1000L;
+        pingSkipped = DensifyHealth.isRecentlyHealthy(densifyUrl, idleMillis);
+        if (pingSkipped) {
+            logger.log("Skip ping, last successful call to Densify was "
+                    + DensifyHealth.millisSinceLastSuccess(densifyUrl) + " ms ago");
+        } else {
+            int pingResp = ping(densifyUrl, logger);
+            if (pingResp != 200) {
+                logger.log("Failed to ping Densify, ABORT!");
+                return null;
+            }
         }
 
-        if (apiToken == null || LocalDateTime.now().isAfter(timestamp.plusMinutes(5))) {
-            JSONObject authorization = authorize(logger);
-            if (!authorization.get("status").equals(200)) {
-                logger.log("Failed to perform authorization:" + authorization.get("message"));
+        // A token that another invocation in this container obtained or renewed is reused before authorizing again
+        TokenCache.Token token = TokenCache.get(densifyUrl, densifyUsername);
+        if (token == null && apiToken != null) {
+            TokenCache.put(densifyUrl, densifyUsername, new TokenCache.Token(apiToken, timestamp));
+            token = TokenCache.get(densifyUrl, densifyUsername);
+        }
+        if (token == null) {
+            token = TokenCache.refresh(densifyUrl, densifyUsername, this::authorize,
+                    getIntOption("TokenRenewSeconds", TokenCache.DEFAULT_RENEW_AFTER_SECONDS), logger);
+            if (token == null) {
                 return null;
             }
-            setApiToken(authorization.get("apiToken").toString());
-            logger.log("Set Densify api token to: " + apiToken);
-            return true;
         }
-        return false;
+
+        // The stored connection only needs to be written back if it holds a different token
+        if (token.getValue().equals(apiToken)) {
+            return false;
+        }
+        this.apiToken = token.getValue();
+        this.timestamp = token.getIssuedAt();
+        logger.log("Set Densify api token to: " + apiToken);
+        return true;
     }
 
 
-    private void populateRecommendationsTags(JSONArray recommendations, Logger logger) {
-        String requestPrefix = densifyUrl + ":443/CIRBA/api/v2/systems/";
-        // for every system, retrieve attributes
+    private String getSystemRequestUrl(JSONObject recommendation) {
+        return densifyUrl + ":443/CIRBA/api/v2/systems/" + recommendation.get("entityId").toString();
+    }
+
+    public void populateRecommendationsTags(JSONArray recommendations, Logger logger) {
+        // Skip systems that already have their tags resolved
+        List<JSONObject> untagged = new ArrayList<>();
+        List<String> requestUrls = new ArrayList<>();
         for (int i = 0; i < recommendations.length(); i++) {
             JSONObject recommendation = recommendations.getJSONObject(i);
-            String requestUrl = requestPrefix + recommendation.get("entityId").toString();
-            JSONArray response = Helper.getRequestHelper(requestUrl, getCommonHeaders());
+            if (!recommendation.has("tags") && recommendation.has("entityId")) {
+                untagged.add(recommendation);
+                requestUrls.add(getSystemRequestUrl(recommendation));
+            }
+        }
 
-            if (response == null || response.length() < 1 || response.getJSONObject(0).has("ErrorMessage")) {
-                if (response.getJSONObject(0).has("ErrorMessage")) {
-                    logger.log(response.getJSONObject(0).get("ErrorMessage").toString());
-                }
-                continue;
+        // for every system, retrieve attributes
+        SystemAttributesFetcher fetcher = new SystemAttributesFetcher(
+                getIntOption("TagFetchParallelism", SystemAttributesFetcher.DEFAULT_PARALLELISM));
+        JSONArray[] responses = fetcher.fetchAll(requestUrls, getCommonHeaders(), logger);
+
+        for (int i = 0; i < responses.length; i++) {
+            JSONArray tags = extractResourceTags(responses[i], logger);
+            if (tags != null) {
+                untagged.get(i).put("tags", tags);
             }
+        }
+    }
 
-            // retrieve attributes and look for ones that have id "attr_resource_tags" and save them as array in recommendation json
-            JSONArray tags = new JSONArray();
-            JSONArray attributes = response.getJSONObject(0).getJSONArray("attributes");
-            for (int j = 0; j < attributes.length(); j++) {
-                if (attributes.getJSONObject(j).get("id").toString().equals("attr_resource_tags")) {
-                    tags.put(attributes.getJSONObject(j).get("value").toString());
-                }
+    // retrieve attributes and look for ones that have id "attr_resource_tags" and return them as array
+    private static JSONArray extractResourceTags(JSONArray response, Logger logger) {
+        if (response == null || response.length() < 1) {
+            return null;
+        }
+        if (response.getJSONObject(0).has("ErrorMessage")) {
+            logger.log(response.getJSONObject(0).get("ErrorMessage").toString());
+            return null;
+        }
+
+        JSONArray tags = new JSONArray();
+        JSONArray attributes = response.getJSONObject(0).optJSONArray("attributes");
+        if (attributes == null) {
+            return tags;
+        }
+        for (int j = 0; j < attributes.length(); j++) {
+            if (attributes.getJSONObject(j).get("id").toString().equals("attr_resource_tags")) {
+                tags.put(attributes.getJSONObject(j).get("value").toString());
             }
-            recommendation.put("tags", tags);
         }
+        return tags;
     }
 
-    public JSONArray getRecommendations(String awsAccount, Logger logger) {
-        JSONArray recommendations = retrieveAnalysisResult(awsAccount, logger);
+    // Conditional on previous when it is not null. Null if the results could not be retrieved, except for a 404
+    // which is returned so that the caller can locate the analysis again.
+    public AnalysisDownload downloadAnalysisAt(String analysisResultsUrl, String stopAtName, AnalysisValidators previous,
+                                               Logger logger) {
+        AnalysisDownload download = Helper.getAnalysisRequestHelper(analysisResultsUrl, getCommonHeaders(), stopAtName, previous);
+        if (download.getWireBytes() >= 0) {
+            logger.log("Analysis results at " + analysisResultsUrl + ": " + download.getWireBytes() + " bytes received, "
+                    + download.getDecodedBytes() + " bytes decoded");
+        }
+        if (download.isNotModified()) {
+            logger.log("Analysis results at " + analysisResultsUrl + " are not modified");
+            return download;
+        }
+        if (download.isNotFound()) {
+            logger.log("Analysis results at " + analysisResultsUrl + " no longer exist");
+            return download;
+        }
+        return checkRecommendations(download.getRecommendations(), analysisResultsUrl, logger) == null ? null : download;
+    }
 
+    private JSONArray checkRecommendations(JSONArray recommendations, String source, Logger logger) {
         if (recommendations == null || recommendations.length() < 1) {
-            logger.log("Could not retrieve analysis information for " + awsAccount);
+            logger.log("Could not retrieve analysis information for " + source);
             return null;
         } else if (recommendations.getJSONObject(0).has("ErrorMessage")) {
             logger.log(recommendations.getJSONObject(0).get("ErrorMessage").toString());
             return null;
         }
-        populateRecommendationsTags(recommendations, logger);
-
         return recommendations;
     }
-
-
 }
@@ -0,0 +1,45 @@
+package com.densify.optimization.recommendation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Outcome of the latest calls to each Densify host, fed by the transport. A host that answered a real API call
+// recently does not need to be pinged before the next one.
+public class DensifyHealth {
+
+    public static final int DEFAULT_PING_IDLE_SECONDS = 60;
+
+    private static class State {
+        private volatile long lastSuccessMillis = 0;
+        private volatile long lastFailureMillis = 0;
+    }
+
+    private static final Map<String, State> states = new ConcurrentHashMap<>();
+
+    private static State state(String url) {
+        return states.computeIfAbsent(TransportRegistry.hostKey(url), host -> new State());
+    }
+
+    public static void recordSuccess(String url) {
+        state(url).lastSuccessMillis = System.currentTimeMillis();
+    }
+
+    public static void recordFailure(String url) {
+        state(url).lastFailureMillis = System.currentTimeMillis();
+    }
+
+    // True if the last call to the host succeeded and happened within idleMillis
+    public static boolean isRecentlyHealthy(String url, long idleMillis) {
+        State state = states.get(TransportRegistry.hostKey(url));
+        if (state == null) {
+            return false;
+        }
+        long lastSuccess = state.lastSuccessMillis;
+        return lastSuccess > state.lastFailureMillis && System.currentTimeMillis() - lastSuccess <= idleMillis;
+    }
+
+    public static long millisSinceLastSuccess(String url) {
+        State state = states.get(TransportRegistry.hostKey(url));
+        return state == null || state.lastSuccessMillis == 0 ? -1 : System.currentTimeMillis() - state.lastSuccessMillis;
+    }
+}
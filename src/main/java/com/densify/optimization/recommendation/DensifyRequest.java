@@ -0,0 +1,44 @@
+package com.densify.optimization.recommendation;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DensifyRequest {
+
+    private final String method;
+    private final String url;
+    private final Map<String, String> headers;
+    private final String body;
+
+    private DensifyRequest(String method, String url, Map<String, String> headers, String body) {
+        this.method = method;
+        this.url = url;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        this.body = body;
+    }
+
+    public static DensifyRequest get(String url, Map<String, String> headers) {
+        return new DensifyRequest("GET", url, headers, null);
+    }
+
+    public static DensifyRequest post(String url, Map<String, String> headers, String body) {
+        return new DensifyRequest("POST", url, headers, body);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getBody() {
+        return body;
+    }
+}
@@ -0,0 +1,59 @@
+package com.densify.optimization.recommendation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+// Response as seen by a Handler. The body is already decompressed and is only valid while the handler runs,
+// the transport drains and closes it afterwards so that the connection can be reused.
+public class DensifyResponse {
+
+    @FunctionalInterface
+    public interface Handler<T> {
+        T handle(DensifyResponse response) throws IOException;
+    }
+
+    private final int statusCode;
+    private final Function<String, String> headers;
+    private final InputStream body;
+
+    public DensifyResponse(int statusCode, Function<String, String> headers, InputStream body) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getHeader(String name) {
+        return headers.apply(name);
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    // Transfer sizes of the body read so far, -1 if the transport does not count them
+    public long getWireBytes() {
+        return CompressedTransfer.wireBytesOf(body);
+    }
+
+    public long getDecodedBytes() {
+        return CompressedTransfer.decodedBytesOf(body);
+    }
+
+    public String readBody() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        StringBuilder response = new StringBuilder();
+        String inputLine;
+        while ((inputLine = in.readLine()) != null) {
+            response.append(inputLine);
+        }
+        return response.toString();
+    }
+}
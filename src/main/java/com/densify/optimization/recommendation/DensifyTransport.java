@@ -0,0 +1,29 @@
+package com.densify.optimization.recommendation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+// Transport used for all calls to a Densify host. See TransportRegistry for how transports are looked up and replaced.
+public interface DensifyTransport {
+
+    <T> T send(DensifyRequest request, DensifyResponse.Handler<T> handler) throws IOException;
+
+    // Executor the transport runs asynchronous requests on
+    Executor executor();
+
+    default <T> CompletableFuture<T> sendAsync(DensifyRequest request, DensifyResponse.Handler<T> handler) {
+        return sendAsync(request, handler, executor());
+    }
+
+    default <T> CompletableFuture<T> sendAsync(DensifyRequest request, DensifyResponse.Handler<T> handler, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return send(request, handler);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+}
@@ -3,26 +3,49 @@ package com.densify.optimization.recommendation;
 import com.amazonaws.cloudformation.proxy.AmazonWebServicesClientProxy;
 import com.amazonaws.cloudformation.proxy.Logger;
 import com.amazonaws.cloudformation.proxy.OperationStatus;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
-import com.amazonaws.services.securitytoken.model.GetCallerIdentityRequest;
-import com.amazonaws.services.securitytoken.model.GetCallerIdentityResult;
 import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagement;
-import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagementClientBuilder;
 import com.amazonaws.services.simplesystemsmanagement.model.*;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Helper {
 
+    private static final int GET_PARAMETERS_BATCH_SIZE = 10;
+    // Threads for parallel GetParameters batches, shared by all invocations of the container
+    private static final int PARAMETER_FETCH_THREADS = 8;
+    private static final ExecutorService parameterFetchPool = Executors.newFixedThreadPool(PARAMETER_FETCH_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "densify-parameter-fetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // In-flight analysis downloads, keyed by Densify instance, account and the kind of download
+    private static final SingleFlight<String, RecommendationCache.Entry> analysisFetches = new SingleFlight<>();
+
+    private static final AtomicLong avoidedWrites = new AtomicLong();
+    // Last time this container confirmed a stored recommendation is current without rewriting it
+    private static final Map<String, LocalDateTime> verifiedAt = new ConcurrentHashMap<>();
+
     private static String densifyParameterName = "DensifyConnection";
     private static String recommendationParamNamePrefix = "Densify_Recommendation_";
     private static String timestampParamName = "DensifyRefreshTime";
@@ -35,23 +58,26 @@ public class Helper {
         densifyParameterName = name;
     }
 
-    public static String retrieveAWSAccount(AmazonWebServicesClientProxy proxy) {
-        AWSSecurityTokenService client = AWSSecurityTokenServiceClientBuilder.standard().build();
-        GetCallerIdentityRequest request = new GetCallerIdentityRequest();
+    public static String getDensifyParameterName() {
+        return densifyParameterName;
+    }
 
-        GetCallerIdentityResult result = proxy.injectCredentialsAndInvoke(request, client::getCallerIdentity);
+    public static String getTimestampParamName() {
+        return timestampParamName;
+    }
 
-        return result.getAccount();
+    public static String retrieveAWSAccount(AmazonWebServicesClientProxy proxy) {
+        return AwsClients.awsAccount(proxy);
     }
 
     public static String retrieveFromParameterStore(String paramName, AmazonWebServicesClientProxy proxy, Logger logger) {
-        AWSSimpleSystemsManagement client = AWSSimpleSystemsManagementClientBuilder.standard().build();
+        AWSSimpleSystemsManagement client = AwsClients.ssm();
         GetParameterRequest request = new GetParameterRequest().withName(paramName).withWithDecryption(true);
 
         GetParameterResult result;
         // In case if parameter can not be found or other errors
         try {
-            result = proxy.injectCredentialsAndInvoke(request, client::getParameter);
+            result = ParameterStoreRetry.call("GetParameter", () -> proxy.injectCredentialsAndInvoke(request, client::getParameter), logger);
         } catch (Exception e) {
             logger.log(e.getMessage());
             System.out.print(e.getMessage());
@@ -60,8 +86,91 @@ public class Helper {
         return result.getParameter().getValue();
     }
 
-    public static String writeToParameterStore(String id, String value, boolean withEncryption, AmazonWebServicesClientProxy proxy) {
-        AWSSimpleSystemsManagement client = AWSSimpleSystemsManagementClientBuilder.standard().build();
+    // Retrieves (and decrypts) all parameters with one GetParameters call per 10 names.
+    // Names that do not exist are reported in the log and left out of the returned map.
+    public static Map<String, String> retrieveFromParameterStore(Collection<String> paramNames, AmazonWebServicesClientProxy proxy, Logger logger) {
+        AWSSimpleSystemsManagement client = AwsClients.ssm();
+        Map<String, String> values = new HashMap<>();
+        List<String> names = new ArrayList<>(new LinkedHashSet<>(paramNames));
+
+        for (int from = 0; from < names.size(); from += GET_PARAMETERS_BATCH_SIZE) {
+            List<String> batch = names.subList(from, Math.min(from + GET_PARAMETERS_BATCH_SIZE, names.size()));
+            GetParametersRequest request = new GetParametersRequest().withNames(batch).withWithDecryption(true);
+
+            GetParametersResult result;
+            try {
+                result = ParameterStoreRetry.call("GetParameters", () -> proxy.injectCredentialsAndInvoke(request, client::getParameters), logger);
+            } catch (Exception e) {
+                logger.log(e.getMessage());
+                continue;
+            }
+            if (result == null) {
+                continue;
+            }
+            for (Parameter parameter : result.getParameters()) {
+                values.put(parameter.getName(), parameter.getValue());
+            }
+            if (result.getInvalidParameters() != null && !result.getInvalidParameters().isEmpty()) {
+                logger.log("Parameters not found: " + result.getInvalidParameters());
+            }
+        }
+        return values;
+    }
+
+    // Same as above with up to `parallelism` GetParameters batches in flight. The batches are split into that many
+    // groups, each fetched one batch after the other on the shared pool.
+    public static Map<String, String> retrieveFromParameterStore(Collection<String> paramNames, int parallelism,
+                                                                 AmazonWebServicesClientProxy proxy, Logger logger) {
+        List<String> names = new ArrayList<>(new LinkedHashSet<>(paramNames));
+        int batches = (names.size() + GET_PARAMETERS_BATCH_SIZE - 1) / GET_PARAMETERS_BATCH_SIZE;
+        if (parallelism <= 1 || batches <= 1) {
+            return retrieveFromParameterStore(names, proxy, logger);
+        }
+
+        int groups = Math.min(parallelism, batches);
+        int batchesPerGroup = (batches + groups - 1) / groups;
+        int groupSize = batchesPerGroup * GET_PARAMETERS_BATCH_SIZE;
+        Map<String, String> values = new HashMap<>();
+        List<Future<Map<String, String>>> futures = new ArrayList<>(groups);
+        try {
+            for (int from = 0; from < names.size(); from += groupSize) {
+                List<String> group = names.subList(from, Math.min(from + groupSize, names.size()));
+                futures.add(parameterFetchPool.submit(() -> retrieveFromParameterStore(group, proxy, logger)));
+            }
+            for (Future<Map<String, String>> future : futures) {
+                try {
+                    values.putAll(future.get());
+                } catch (ExecutionException ee) {
+                    logger.log("Failed to retrieve parameters: " + ee.getCause());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            // Nothing of this invocation keeps running once it returns
+            for (Future<Map<String, String>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return values;
+    }
+
+    // One page of the parameters whose name starts with prefix, a failed call throws
+    public static DescribeParametersResult describeParameters(String prefix, String nextToken, int maxResults,
+                                                              AmazonWebServicesClientProxy proxy, Logger logger) {
+        AWSSimpleSystemsManagement client = AwsClients.ssm();
+        DescribeParametersRequest request = new DescribeParametersRequest()
+                .withParameterFilters(new ParameterStringFilter().withKey("Name").withOption("BeginsWith").withValues(prefix))
+                .withMaxResults(maxResults)
+                .withNextToken(nextToken);
+        return ParameterStoreRetry.call("DescribeParameters",
+                () -> proxy.injectCredentialsAndInvoke(request, client::describeParameters), logger);
+    }
+
+    public static String writeToParameterStore(String id, String value, boolean withEncryption, AmazonWebServicesClientProxy proxy,
+                                               Logger logger) {
+        AWSSimpleSystemsManagement client = AwsClients.ssm();
 
         ParameterType parameterType = withEncryption ? ParameterType.SecureString : ParameterType.String;
         PutParameterRequest request = new PutParameterRequest()
@@ -71,77 +180,252 @@ public class Helper {
                 .withOverwrite(true);
         PutParameterResult result;
         try {
-            result = proxy.injectCredentialsAndInvoke(request, client::putParameter);
+            result = ParameterStoreRetry.call("PutParameter",
+                    () -> proxy.injectCredentialsAndInvoke(request, client::putParameter), logger);
         } catch (ParameterMaxVersionLimitExceededException pmv){
-            deleteFromParameterStore(id, proxy);
-            result = proxy.injectCredentialsAndInvoke(request, client::putParameter);
+            // The version history of the parameter is full, only a new parameter can be written
+            deleteFromParameterStore(id, proxy, logger);
+            result = ParameterStoreRetry.call("PutParameter",
+                    () -> proxy.injectCredentialsAndInvoke(request, client::putParameter), logger);
         } catch (TooManyUpdatesException tmu) {
+            // Retries are exhausted
             return null;
         }
         return result.toString();
     }
 
-    public static String deleteFromParameterStore(String id, AmazonWebServicesClientProxy proxy) {
-        AWSSimpleSystemsManagement client = AWSSimpleSystemsManagementClientBuilder.standard().build();
+    public static String deleteFromParameterStore(String id, AmazonWebServicesClientProxy proxy, Logger logger) {
+        AWSSimpleSystemsManagement client = AwsClients.ssm();
 
         DeleteParameterRequest request = new DeleteParameterRequest()
                 .withName(id);
         DeleteParameterResult result;
         try {
-            result = proxy.injectCredentialsAndInvoke(request, client::deleteParameter);
+            result = ParameterStoreRetry.call("DeleteParameter",
+                    () -> proxy.injectCredentialsAndInvoke(request, client::deleteParameter), logger);
         } catch (ParameterNotFoundException pnfe) {
             return "ParameterNotFound";
         }
         return result.toString();
     }
 
+    // Deletes with one DeleteParameters call per 10 names. Returns the names that existed and were deleted, or null
+    // if a DeleteParameters call failed, so that names that do not exist can be told apart from a failed delete.
+    public static List<String> deleteFromParameterStore(Collection<String> paramNames, AmazonWebServicesClientProxy proxy, Logger logger) {
+        AWSSimpleSystemsManagement client = AwsClients.ssm();
+        List<String> deleted = new ArrayList<>();
+        List<String> names = new ArrayList<>(new LinkedHashSet<>(paramNames));
+        boolean failed = false;
+
+        for (int from = 0; from < names.size(); from += GET_PARAMETERS_BATCH_SIZE) {
+            List<String> batch = names.subList(from, Math.min(from + GET_PARAMETERS_BATCH_SIZE, names.size()));
+            DeleteParametersRequest request = new DeleteParametersRequest().withNames(batch);
+
+            DeleteParametersResult result;
+            try {
+                result = ParameterStoreRetry.call("DeleteParameters", () -> proxy.injectCredentialsAndInvoke(request, client::deleteParameters), logger);
+            } catch (Exception e) {
+                logger.log("Failed to delete " + batch + ": " + e.getMessage());
+                failed = true;
+                continue;
+            }
+            if (result != null && result.getDeletedParameters() != null) {
+                deleted.addAll(result.getDeletedParameters());
+            }
+        }
+        return failed ? null : deleted;
+    }
+
+    // One page (at most 10) of the parameters below path, a failed call throws
+    public static GetParametersByPathResult retrieveByPath(String path, String nextToken, AmazonWebServicesClientProxy proxy, Logger logger) {
+        AWSSimpleSystemsManagement client = AwsClients.ssm();
+        GetParametersByPathRequest request = new GetParametersByPathRequest()
+                .withPath(path)
+                .withRecursive(false)
+                .withWithDecryption(true)
+                .withMaxResults(GET_PARAMETERS_BATCH_SIZE)
+                .withNextToken(nextToken);
+        return ParameterStoreRetry.call("GetParametersByPath",
+                () -> proxy.injectCredentialsAndInvoke(request, client::getParametersByPath), logger);
+    }
+
     public static JSONArray getRequestHelper(String requestPrefix, Map<String, String> headers) {
         JSONArray ret;
         try {
-            URL url = new URL(requestPrefix);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
+            ret = TransportRegistry.forUrl(requestPrefix).send(DensifyRequest.get(requestPrefix, headers), Helper::parseJsonResponse);
+        } catch (Exception e) {
+            ret = new JSONArray().put(new JSONObject().put("ErrorMessage", e.getMessage()));
+        }
+        return ret;
+    }
+
+    // Response body as JSONArray, a single object is wrapped into an array. null if the request did not succeed
+    static JSONArray parseJsonResponse(DensifyResponse response) throws IOException {
+        if (response.getStatusCode() != 200) {
+            return null;
+        }
+        String body = response.readBody();
+        if (body.startsWith("[")) {
+            return new JSONArray(body);
+        }
+        return new JSONArray().put(new JSONObject(body));
+    }
+
+    // Parses the analysis results while they are read from the connection. Only the fields handlers need are kept,
+    // and reading stops after stopAtName is found when it is not null. With previous validators the request is
+    // conditional, and a 304 answer comes back as notModified
+    public static AnalysisDownload getAnalysisRequestHelper(String requestPrefix, Map<String, String> headers, String stopAtName,
+                                                            AnalysisValidators previous) {
+        Map<String, String> requestHeaders = previous == null ? headers : previous.addTo(headers);
+        try {
+            return TransportRegistry.forUrl(requestPrefix).send(DensifyRequest.get(requestPrefix, requestHeaders), response -> {
+                AnalysisDownload download = readAnalysis(response, stopAtName, previous);
+                return download.withTransferSizes(response.getWireBytes(), response.getDecodedBytes());
+            });
+        } catch (Exception e) {
+            return AnalysisDownload.of(new JSONArray().put(new JSONObject().put("ErrorMessage", e.getMessage())), null);
+        }
+    }
+
+    private static AnalysisDownload readAnalysis(DensifyResponse response, String stopAtName, AnalysisValidators previous) {
+        AnalysisValidators validators = AnalysisValidators.of(response);
+        if (response.getStatusCode() == 304 && previous != null) {
+            return AnalysisDownload.notModified(validators != null ? validators : previous);
+        }
+        if (response.getStatusCode() != 200) {
+            return AnalysisDownload.failed(response.getStatusCode());
+        }
+        AnalysisResultReader reader = new AnalysisResultReader(response.getBody());
+        if (stopAtName == null) {
+            JSONArray recommendations = reader.readAll(null);
+            return AnalysisDownload.of(recommendations, validators, reader.getEstimatedBytes());
+        }
+        return AnalysisDownload.of(findPage(reader.pages(AnalysisResultReader.DEFAULT_PAGE_SIZE), stopAtName), validators);
+    }
 
-            for (Map.Entry<String, String> header : headers.entrySet()) {
-                connection.setRequestProperty(header.getKey(), header.getValue());
+    // Matches by name while the results are read, pages before the match are dropped so memory stays bounded by the
+    // page size. Returns the matched recommendation alone, or the last page if the name is not in the analysis.
+    static JSONArray findPage(Iterator<JSONArray> pages, String name) {
+        JSONArray page = new JSONArray();
+        while (pages.hasNext()) {
+            page = pages.next();
+            JSONObject recommendation = RecommendationIndex.build(page).matchByName(name);
+            if (recommendation != null) {
+                return new JSONArray().put(recommendation);
             }
+        }
+        return page;
+    }
 
-            int responseCode = connection.getResponseCode();
-            if (responseCode != 200) {
-                return null;
+    // Time Densify last confirmed the stored recommendation: its timestamp, or a later refresh that skipped the write.
+    // verifiedValue is the value of the verified parameter of paramName, null if there is none.
+    public static LocalDateTime lastConfirmed(String paramName, String timeStr, String verifiedValue) {
+        LocalDateTime confirmed = LocalDateTime.parse(timeStr);
+        LocalDateTime verified = verifiedAt.get(paramName);
+        if (verified != null && verified.isAfter(confirmed)) {
+            confirmed = verified;
+        }
+        if (verifiedValue != null) {
+            try {
+                LocalDateTime marked = LocalDateTime.parse(verifiedValue);
+                if (marked.isAfter(confirmed)) {
+                    confirmed = marked;
+                }
+            } catch (DateTimeParseException dtpe) {
+                // Not a time, the parameter is ignored
             }
+        }
+        return confirmed;
+    }
 
-            BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            String inputLine;
-            StringBuffer response = new StringBuffer();
-            while ((inputLine = in.readLine()) != null) {
-                response.append(inputLine);
+    public static String recommendationFingerprint(JSONObject recommendation) {
+        JSONArray stable = new JSONArray();
+        for (String field : RecommendationFields.STABLE) {
+            stable.put(recommendation.has(field) ? recommendation.get(field).toString() : JSONObject.NULL);
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(stable.toString().getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every JVM has SHA-256, compare the fields themselves otherwise
+            return stable.toString();
+        }
+    }
+
+    // Writes the recommendation unless storedValue, the current value of the parameter, already holds the same
+    // stable fields. Returns true if the parameter was written. A skipped write only marks the parameter as verified:
+    // once the last confirmation is older than freshSeconds the time goes to the verified parameter, so other
+    // containers see that the recommendation is current without its parameter getting another version.
+    public static boolean writeRecommendationIfChanged(String paramName, JSONObject recommendation, String storedValue,
+                                                       int freshSeconds, AmazonWebServicesClientProxy proxy, Logger logger) {
+        JSONObject stored = null;
+        if (storedValue != null) {
+            try {
+                stored = RecommendationCodec.decode(storedValue);
+            } catch (Exception e) {
+                // Stored value can not be compared, overwrite it
             }
-            in.close();
+        }
+        if (stored == null || !canSkipWrite(stored, recommendation)) {
+            writeToParameterStore(paramName, RecommendationCodec.encode(recommendation), false, proxy, logger);
+            verifiedAt.remove(paramName);
+            return true;
+        }
 
-            if (response.toString().startsWith("[")) {
-                ret = new JSONArray(response.toString());
-            } else {
-                ret = new JSONArray().put(new JSONObject(response.toString()));
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime confirmed = lastConfirmed(paramName, stored.getString("timestamp"), null);
+        verifiedAt.put(paramName, now);
+        logger.log("Recommendation in " + paramName + " is unchanged, skip write (" + avoidedWrites.incrementAndGet()
+                + " writes avoided)");
+        if (!now.isBefore(confirmed.plusSeconds(freshSeconds))) {
+            try {
+                writeToParameterStore(ParameterNamespace.verifiedParamName(paramName), now.toString(), false, proxy, logger);
+            } catch (Exception e) {
+                logger.log("Could not mark " + paramName + " as verified: " + e.getMessage());
             }
-        } catch (Exception e) {
-            ret = new JSONArray().put(new JSONObject().put("ErrorMessage", e.getMessage()));
         }
-        return ret;
+        return false;
     }
 
-    public static boolean recommendationIsFresh(String timeStr) {
-        return LocalDateTime.now().isBefore(LocalDateTime.parse(timeStr).plusMinutes(2));
+    static boolean canSkipWrite(JSONObject stored, JSONObject recommendation) {
+        return recommendationFingerprint(stored).equals(recommendationFingerprint(recommendation));
     }
 
-    public static JSONObject matchRequestToRecommendationByUniqueIdentifier(String primaryIdentifier, JSONArray recommendations) {
-        for (int i = 0; i < recommendations.length(); i++) {
-            JSONObject recommendation = recommendations.getJSONObject(i);
-            if (recommendation.has("name") && recommendation.getString("name").equals(primaryIdentifier)) {
-                return recommendation;
-            }
+    public static long getAvoidedWrites() {
+        return avoidedWrites.get();
+    }
+
+    public static JSONObject matchRecommendation(DensifyAPI densify, String primaryIdentifier, RecommendationIndex.MatchStrategy strategy,
+                                                 RecommendationCache.Entry analysis, Logger logger) {
+        JSONObject recommendation = analysis.getIndex().match(primaryIdentifier, strategy);
+        // Tags were not resolved for the whole analysis, fetch them only if the strategy needs them
+        if (recommendation == null && strategy.usesTags() && !analysis.isFullyTagged()) {
+            // The cached analysis is shared, tags are resolved on a copy that then replaces it in the cache
+            JSONArray tagged = RecommendationCache.copyOf(analysis);
+            densify.populateRecommendationsTags(tagged, logger);
+            RecommendationCache.Entry retagged = RecommendationCache.replace(analysis, tagged);
+            logDuplicateKeys(retagged.getIndex(), logger);
+            recommendation = retagged.getIndex().match(primaryIdentifier, strategy);
+        }
+        return recommendation;
+    }
+
+    // Densify has to be contacted unless the cached analysis can answer the match on its own
+    static boolean isAnsweredByCache(RecommendationCache.Entry analysis, String primaryIdentifier,
+                                             RecommendationIndex.MatchStrategy strategy) {
+        if (analysis.getIndex().match(primaryIdentifier, strategy) != null) {
+            return true;
+        }
+        return !strategy.usesTags() || analysis.isFullyTagged();
+    }
+
+    private static void logDuplicateKeys(RecommendationIndex index, Logger logger) {
+        if (!index.getDuplicateNames().isEmpty()) {
+            logger.log("Analysis contains duplicate system names: " + index.getDuplicateNames());
+        }
+        if (!index.getDuplicateTags().isEmpty()) {
+            logger.log("Tag values shared by several systems can not be used for matching: " + index.getDuplicateTags());
         }
-        return null;
     }
 
     public static String doRecommendationLogic(JSONObject recommendation) {
@@ -170,9 +454,9 @@ public class Helper {
         json.put("timestamp", LocalDateTime.now().toString());
     }
 
-    public static JSONObject getAndCheckDensifyInfo(AmazonWebServicesClientProxy proxy, Logger logger) {
-        // Retrieve Densify information that is supposed to be saved in ParameterStore prior to running create or update
-        String densifyConnectionInfoString = retrieveFromParameterStore(densifyParameterName, proxy, logger);
+    // Densify information is supposed to be saved in ParameterStore prior to running create or update,
+    // densifyConnectionInfoString is its value or null if the parameter does not exist
+    public static JSONObject getAndCheckDensifyInfo(String densifyConnectionInfoString, Logger logger) {
         if (densifyConnectionInfoString == null) {
             return new JSONObject()
                     .put("failed", OperationStatus.FAILED)
@@ -184,7 +468,7 @@ public class Helper {
         } catch (Exception jse) {
             logger.log("Looks like stored Densify connection information has incorrect format.\n " + jse.getMessage());
             return new JSONObject()
-                    .put("status", OperationStatus.FAILED)
+                    .put("failed", OperationStatus.FAILED)
                     .put("msg", "Could not parse Densify connection info from ParameterStore");
 
         }
@@ -192,59 +476,173 @@ public class Helper {
         return densifyConnection;
     }
 
-    public static JSONObject connectAndGetRecommendation(JSONObject densifyConnection, ResourceModel model,
-                                                         AmazonWebServicesClientProxy proxy, Logger logger) {
-        // Establish connection to Densify and retrieve the recommendations
-        DensifyAPI densify = new DensifyAPI(densifyConnection);
-
-        String msg;
+    // Returns null once Densify is reachable and authorized, or the failure status to hand back to the handler
+    static JSONObject connect(DensifyAPI densify, ResourceModel model, AmazonWebServicesClientProxy proxy, Logger logger) {
+        // Do not wait on a Densify instance that has been failing, use the fallback right away
+        if (!CircuitBreaker.forUrl(densify.getDensifyUrl()).allowRequest(logger)) {
+            logger.log("Circuit to " + densify.getDensifyUrl() + " is open, skip contacting Densify");
+            return connectionFailure(model, "Densify server at " + densify.getDensifyUrl()
+                    + " is unavailable, not contacted until it recovers", logger);
+        }
 
         // densifyState is true if update in ParameterStore is required, false if not and null if there was an error
+        long start = System.currentTimeMillis();
         Boolean densifyNeedsUpdate = densify.checkAndUpdate(logger);
+        logger.log("Densify connection check took " + (System.currentTimeMillis() - start) + " ms"
+                + (densify.isPingSkipped() ? " (ping skipped)" : ""));
         if (densifyNeedsUpdate == null) {
             logger.log("Failed to establish connection to " + densify.getDensifyUrl());
-            JSONObject ret = new JSONObject()
-                    .put("failed", "failed")
-                    .put("msg", "Could not establish connection with Densify server at " + densify.getDensifyUrl());
-            if (model.getInstanceType() != null) {
-                logger.log("Found fallback InstanceType = " + model.getInstanceType());
-                ret.put("recommendation", buildFallbackParameter(model.getInstanceType()));
-            } else {
-                logger.log("No fallback instance type found");
-            }
-            return ret;
+            return connectionFailure(model,
+                    "Could not establish connection with Densify server at " + densify.getDensifyUrl(), logger);
         }
 
-
         if (densifyNeedsUpdate) {
             logger.log("Update Densify information in the ParameterStore");
-            writeToParameterStore(densifyParameterName, densify.toString(), true, proxy);
+            writeToParameterStore(densifyParameterName, densify.toString(), true, proxy, logger);
         }
+        return null;
+    }
 
-        // TODO: this piece is only here for testing and demoing using demodb. Remove later if needed
-        String awsAccount;
-        if (model.getTestAWSAccount() == null) {
-            awsAccount = retrieveAWSAccount(proxy);
+    static JSONObject connectionFailure(ResourceModel model, String msg, Logger logger) {
+        JSONObject ret = new JSONObject()
+                .put("failed", "failed")
+                .put("msg", msg);
+        if (model.getInstanceType() != null) {
+            logger.log("Found fallback InstanceType = " + model.getInstanceType());
+            ret.put("recommendation", buildFallbackParameter(model.getInstanceType()));
         } else {
-            awsAccount = model.getTestAWSAccount();
+            logger.log("No fallback instance type found");
         }
+        return ret;
+    }
+
+    // Concurrent invocations asking for the same analysis share one download. Failures are returned to every
+    // waiter but not remembered, the next invocation tries again. analysisResultsUrl is null if it is not known yet.
+    static RecommendationCache.Entry fetchAnalysis(DensifyAPI densify, String awsAccount, String analysisResultsUrl,
+                                                   String stopAtName, AmazonWebServicesClientProxy proxy, Logger logger) {
+        boolean lazyTags = densify.isLazyTagResolution();
+        String key = densify.getDensifyUrl() + "|" + awsAccount + "|" + (lazyTags ? "lazy" : "eager")
+                + (stopAtName == null ? "" : "|" + stopAtName);
+        if (analysisFetches.isInFlight(key)) {
+            logger.log("Waiting for analysis download of " + awsAccount + " already in progress");
+        }
+        return analysisFetches.execute(key, () -> {
+            // The previous download may have finished between the cache lookup and here
+            RecommendationCache.Entry cached = RecommendationCache.get(densify.getDensifyUrl(), awsAccount);
+            if (cached != null) {
+                return cached;
+            }
+
+            // In lazy mode match on the raw analysis first and fetch tags only for the matched system
+            String resultsUrl = analysisResultsUrl != null ? analysisResultsUrl
+                    : AnalysisLocator.locate(densify, awsAccount, proxy, logger);
+            if (resultsUrl == null) {
+                return null;
+            }
+            // An expired analysis that is still held is only downloaded again if Densify has a newer one
+            RecommendationCache.Entry previous = stopAtName == null
+                    ? RecommendationCache.getForRevalidation(densify.getDensifyUrl(), awsAccount) : null;
+            AnalysisDownload download = densify.downloadAnalysisAt(resultsUrl, stopAtName,
+                    previous == null ? null : previous.getValidators(), logger);
+            if (download != null && download.isNotFound()) {
+                // The remembered location is outdated, look the analysis up once more
+                AnalysisLocator.invalidate(densify, awsAccount, proxy, logger);
+                String relocatedUrl = AnalysisLocator.locate(densify, awsAccount, proxy, logger);
+                download = relocatedUrl == null || relocatedUrl.equals(resultsUrl) ? null
+                        : densify.downloadAnalysisAt(relocatedUrl, stopAtName, null, logger);
+            }
+            if (download == null || download.isNotFound()) {
+                return null;
+            }
+            if (download.isNotModified()) {
+                RecommendationCache.revalidated(densify.getDensifyUrl(), awsAccount, previous);
+                if (RecommendationSnapshot.isEnabled(densify)) {
+                    RecommendationSnapshot.touch(awsAccount, previous.getValidators(), proxy, logger);
+                }
+                return previous;
+            }
 
-        JSONArray recommendations = densify.getRecommendations(awsAccount, logger);
+            JSONArray recommendations = download.getRecommendations();
+            if (!lazyTags) {
+                densify.populateRecommendationsTags(recommendations, logger);
+            }
+            // A download that stopped at the match is only part of the analysis, it must not be cached or shared
+            if (stopAtName != null) {
+                return RecommendationCache.uncached(recommendations);
+            }
+            // Eagerly resolved tags are not part of the size estimated while parsing
+            long bytes = lazyTags ? download.getEstimatedBytes() : AnalysisResultReader.estimateBytes(recommendations);
+            RecommendationCache.Entry analysis = RecommendationCache.put(densify.getDensifyUrl(), awsAccount, recommendations,
+                    download.getValidators(), bytes);
+            logDuplicateKeys(analysis.getIndex(), logger);
+            if (RecommendationSnapshot.isEnabled(densify)) {
+                RecommendationSnapshot.write(awsAccount, recommendations, download.getValidators(), densify, proxy, logger);
+            }
+            return analysis;
+        });
+    }
 
-        if (recommendations == null) {
-            JSONObject ret = new JSONObject();
-            if (model.getInstanceType() != null) {
-                ret.put("recommendation", buildFallbackParameter(model.getInstanceType()))
-                        .put("msg", "Was not able to retrieve recommendations, use fallback InstanceType");
-            } else {
-                ret.put("failed", "failed")
-                        .put("msg", "Could not retrieve recommendations and no Default type was specified in template");
+    static DensifyAPI openDensify(JSONObject densifyConnection) {
+        DensifyAPI densify = new DensifyAPI(densifyConnection);
+        RecommendationCache.configure(densify);
+        CircuitBreaker.configure(densify);
+        TransportRegistry.configure(densify);
+        return densify;
+    }
+
+    static String awsAccountFor(ResourceModel model, AmazonWebServicesClientProxy proxy) {
+        // TODO: this piece is only here for testing and demoing using demodb. Remove later if needed
+        if (model.getTestAWSAccount() == null) {
+            return retrieveAWSAccount(proxy);
+        }
+        return model.getTestAWSAccount();
+    }
+
+    // Analysis held by this container or shared by another resource of the account, null if Densify has to be asked
+    static RecommendationCache.Entry lookupAnalysis(DensifyAPI densify, String awsAccount,
+                                                    AmazonWebServicesClientProxy proxy, Logger logger) {
+        // A warm container may already hold the analysis for this account
+        RecommendationCache.Entry analysis = RecommendationCache.get(densify.getDensifyUrl(), awsAccount);
+        if (analysis != null) {
+            logger.log("Using cached analysis for " + awsAccount + ", cache statistics: " + RecommendationCache.getStatistics());
+        } else if (RecommendationSnapshot.isEnabled(densify)) {
+            // Another resource of this account may have already shared the analysis through ParameterStore
+            analysis = RecommendationSnapshot.read(awsAccount, densify, proxy, logger);
+            if (analysis != null) {
+                logger.log("Using recommendation snapshot for " + awsAccount);
             }
-            return ret;
         }
+        return analysis;
+    }
+
+    // Without the cache or a snapshot to fill, matching by name only needs the results up to the match.
+    // StreamAnalysis asks for that even with them, for analyses too large to hold in memory. Otherwise the whole
+    // analysis is loaded: the cache entry and the snapshot hold every system, reading them page by page would not
+    // lower the memory they need.
+    static String stopAtNameFor(DensifyAPI densify, RecommendationIndex.MatchStrategy strategy, ResourceModel model) {
+        boolean wholeAnalysisUsed = !densify.getBooleanOption("StreamAnalysis", false)
+                && (RecommendationCache.isEnabled() || RecommendationSnapshot.isEnabled(densify));
+        return strategy == RecommendationIndex.MatchStrategy.NAME && !wholeAnalysisUsed ? model.getProvisioningID() : null;
+    }
+
+    static JSONObject retrievalFailure(ResourceModel model) {
+        JSONObject ret = new JSONObject();
+        if (model.getInstanceType() != null) {
+            ret.put("recommendation", buildFallbackParameter(model.getInstanceType()))
+                    .put("msg", "Was not able to retrieve recommendations, use fallback InstanceType");
+        } else {
+            ret.put("failed", "failed")
+                    .put("msg", "Could not retrieve recommendations and no Default type was specified in template");
+        }
+        return ret;
+    }
 
-        JSONObject recommendation = matchRequestToRecommendationByUniqueIdentifier(model.getProvisioningID(), recommendations);
+    // Turns the matched recommendation, or null if there was no match, into the status handlers persist
+    static JSONObject recommendationStatus(JSONObject recommendation, ResourceModel model, Logger logger) {
+        String msg;
         if (recommendation != null) {
+            // The match may belong to a cached analysis that other invocations read, it is only changed as a copy
+            recommendation = new JSONObject(recommendation.toString());
             logger.log("Matched " + model.getProvisioningID() + " with " + recommendation.toString());
             addTimestampToJson(recommendation);
             msg = "Successfully found matching instance";
@@ -269,8 +667,37 @@ public class Helper {
                 .put("msg", msg);
     }
 
-    public static JSONObject refreshRecommendation(ResourceModel model, AmazonWebServicesClientProxy proxy, Logger logger) {
-        JSONObject densifyConnection = getAndCheckDensifyInfo(proxy, logger);
+    public static JSONObject connectAndGetRecommendation(JSONObject densifyConnection, ResourceModel model,
+                                                         AmazonWebServicesClientProxy proxy, Logger logger) {
+        DensifyAPI densify = openDensify(densifyConnection);
+        RecommendationIndex.MatchStrategy strategy = RecommendationIndex.MatchStrategy.fromString(model.getMatchStrategy());
+        String awsAccount = awsAccountFor(model, proxy);
+
+        RecommendationCache.Entry analysis = lookupAnalysis(densify, awsAccount, proxy, logger);
+
+        if (analysis == null || !isAnsweredByCache(analysis, model.getProvisioningID(), strategy)) {
+            // Establish connection to Densify and retrieve the recommendations
+            JSONObject failure = connect(densify, model, proxy, logger);
+            if (failure != null) {
+                return failure;
+            }
+        }
+
+        if (analysis == null) {
+            analysis = fetchAnalysis(densify, awsAccount, null, stopAtNameFor(densify, strategy, model), proxy, logger);
+            if (analysis == null) {
+                return retrievalFailure(model);
+            }
+        }
+
+        JSONObject recommendation = matchRecommendation(densify, model.getProvisioningID(), strategy, analysis, logger);
+        return recommendationStatus(recommendation, model, logger);
+    }
+
+    // storedValue is the current value of the recommendation parameter paramName, it is only rewritten if the
+    // recommendation changed
+    public static JSONObject refreshRecommendation(ResourceModel model, JSONObject densifyConnection, String paramName,
+                                                   String storedValue, AmazonWebServicesClientProxy proxy, Logger logger) {
         if (densifyConnection.has("failed")) {
             return densifyConnection;
         }
@@ -279,8 +706,8 @@ public class Helper {
         if (status.has("failed")) {
             return status;
         } else {
-            Helper.writeToParameterStore(recommendationParamNamePrefix + model.getProvisioningID(),
-                    status.getJSONObject("recommendation").toString(), false, proxy);
+            writeRecommendationIfChanged(paramName, status.getJSONObject("recommendation"), storedValue,
+                    RecommendationFreshness.freshSeconds(model), proxy, logger);
         }
 
         return status.getJSONObject("recommendation");
@@ -302,8 +729,8 @@ public class Helper {
         }
     }
 
-    public static void updateDensifyRefreshParameter(AmazonWebServicesClientProxy proxy, Logger logger) {
-        String paramValue = retrieveFromParameterStore(timestampParamName, proxy, logger);
+    // paramValue is the current value of the refresh parameter, null if it does not exist
+    public static void updateDensifyRefreshParameter(String paramValue, AmazonWebServicesClientProxy proxy, Logger logger) {
         if (paramValue == null) {
             logger.log(timestampParamName + " parameter does not exist");
             return;
@@ -318,7 +745,7 @@ public class Helper {
 
         if (ts == null || LocalDateTime.now().isAfter(ts.plusMinutes(2))){
             logger.log("Update " + timestampParamName + " timestamp parameter");
-            writeToParameterStore(timestampParamName, LocalDateTime.now().toString(), false, proxy);
+            writeToParameterStore(timestampParamName, LocalDateTime.now().toString(), false, proxy, logger);
         }
     }
 }
@@ -1,12 +1,33 @@
 package com.densify.optimization.recommendation;
 
 import software.amazon.cloudformation.proxy.*;
+import com.amazonaws.services.simplesystemsmanagement.model.DescribeParametersResult;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParametersByPathResult;
+import com.amazonaws.services.simplesystemsmanagement.model.Parameter;
+import com.amazonaws.services.simplesystemsmanagement.model.ParameterMetadata;
+import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ListHandler extends BaseHandler<CallbackContext> {
 
+    // DescribeParameters returns at most 50 parameters per page
+    private static final int PAGE_SIZE = 50;
+    private static final int FETCH_PARALLELISM = 4;
+    private static final String FLAT_PHASE = "flat:";
+    private static final String PATH_PHASE = "path:";
+
+    // Token of the Parameter Store call, null for the first page of a phase
+    private static String tokenOf(String nextToken, String phase) {
+        if (nextToken == null || !nextToken.startsWith(phase) || nextToken.length() == phase.length()) {
+            return null;
+        }
+        return nextToken.substring(phase.length());
+    }
+
     @Override
     public ProgressEvent<ResourceModel, CallbackContext> handleRequest(
             final AmazonWebServicesClientProxy proxy,
@@ -14,19 +35,80 @@ public class ListHandler extends BaseHandler<CallbackContext> {
             final CallbackContext callbackContext,
             final Logger logger) {
 
+        ParameterStoreRetry.beginInvocation();
         final List<ResourceModel> models = new ArrayList<>();
-        final ResourceModel model = request.getDesiredResourceState();
 
-        if (model.getPrimaryIdentifier() == null)
+        // One page per invocation, CloudFormation passes nextToken back for the next one. Flat parameters are listed
+        // first, then the ones below the hierarchical path of the account, the token tells the two phases apart.
+        String nextToken = request.getNextToken();
+        List<String> paramNames = new ArrayList<>();
+        Map<String, String> values = new HashMap<>();
+        String pageToken;
+        try {
+            if (nextToken != null && nextToken.startsWith(PATH_PHASE)) {
+                String awsAccount = Helper.retrieveAWSAccount(proxy);
+                GetParametersByPathResult page = Helper.retrieveByPath(ParameterNamespace.getRecommendationPath(awsAccount),
+                        tokenOf(nextToken, PATH_PHASE), proxy, logger);
+                if (page == null || page.getParameters() == null) {
+                    return ProgressEvent.<ResourceModel, CallbackContext>builder()
+                            .resourceModels(models)
+                            .status(OperationStatus.SUCCESS)
+                            .build();
+                }
+                for (Parameter parameter : page.getParameters()) {
+                    paramNames.add(parameter.getName());
+                    values.put(parameter.getName(), parameter.getValue());
+                }
+                pageToken = page.getNextToken() == null ? null : PATH_PHASE + page.getNextToken();
+            } else {
+                DescribeParametersResult page = Helper.describeParameters(Helper.getParameterNamePrefix(),
+                        tokenOf(nextToken, FLAT_PHASE), PAGE_SIZE, proxy, logger);
+                if (page == null || page.getParameters() == null) {
+                    return ProgressEvent.<ResourceModel, CallbackContext>builder()
+                            .resourceModels(models)
+                            .status(OperationStatus.SUCCESS)
+                            .build();
+                }
+                for (ParameterMetadata parameter : page.getParameters()) {
+                    paramNames.add(parameter.getName());
+                }
+                values = Helper.retrieveFromParameterStore(paramNames, FETCH_PARALLELISM, proxy, logger);
+                pageToken = page.getNextToken() == null ? PATH_PHASE : FLAT_PHASE + page.getNextToken();
+            }
+        } catch (Exception e) {
+            // A page that can not be listed must not look like the end of the list
+            logger.log("Failed to list recommendation parameters: " + e.getMessage());
             return ProgressEvent.<ResourceModel, CallbackContext>builder()
-                    .resourceModels(models)
-                    .status(OperationStatus.SUCCESS)
+                    .message("Could not list recommendation parameters: " + e.getMessage())
+                    .errorCode(HandlerErrorCode.ServiceInternalError)
+                    .status(OperationStatus.FAILED)
                     .build();
+        }
 
-        models.add(model);
+        for (String paramName : paramNames) {
+            String value = values.get(paramName);
+            ResourceModel model = new ResourceModel();
+            model.setProvisioningID(ParameterNamespace.provisioningIdOf(paramName));
+            if (value == null) {
+                // The parameter exists but its value could not be read, it is listed without recommendation
+                logger.log("Could not read recommendation of " + model.getProvisioningID());
+                models.add(model);
+                continue;
+            }
+            try {
+                JSONObject recommendation = RecommendationCodec.decode(value);
+                Helper.setModelFields(model, recommendation);
+                model.setInstanceType(Helper.doRecommendationLogic(recommendation));
+            } catch (Exception e) {
+                // E.g. a resource that failed to create, it is listed without recommendation
+                logger.log("Could not parse recommendation of " + model.getProvisioningID());
+            }
+            models.add(model);
+        }
 
         return ProgressEvent.<ResourceModel, CallbackContext>builder()
                 .resourceModels(models)
+                .nextToken(pageToken)
                 .status(OperationStatus.SUCCESS)
                 .build();
     }
@@ -0,0 +1,147 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.AmazonWebServicesClientProxy;
+import com.amazonaws.cloudformation.proxy.Logger;
+import com.amazonaws.services.simplesystemsmanagement.model.DescribeParametersResult;
+import com.amazonaws.services.simplesystemsmanagement.model.ParameterMetadata;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Opt-in hierarchical layout of the recommendation parameters, /densify/<account>/recommendation/<ProvisioningID>,
+// selected with ParameterLayout "hierarchical" in the Densify connection. All recommendations of an account can then
+// be read or deleted by path. Reads look at both layouts, so resources stored before the switch keep working.
+// Refreshing stays per resource: CloudFormation refreshes each resource in its own Read or Update, and one
+// invocation rewriting the recommendations of every resource of the account would spend its time and retry
+// budget on parameters of other stacks. Those resources share the analysis through the cache and snapshot instead.
+public class ParameterNamespace {
+
+    public static final String ROOT = "/densify/";
+    private static final String RECOMMENDATION_FOLDER = "/recommendation/";
+    private static final String VERIFIED_FOLDER = "/verified/";
+    private static final String VERIFIED_PREFIX = "Densify_Verified_";
+    // Flat parameters moved per migration run, one DescribeParameters page
+    private static final int MIGRATION_PAGE_SIZE = 50;
+    private static final int MIGRATION_FETCH_PARALLELISM = 4;
+    // Throttling retries the migration may spend, kept well below the budget of the invocation it runs in
+    static final int MIGRATION_RETRY_BUDGET = 4;
+
+    // DescribeParameters token of the next page to migrate per account. Parameters that could not be migrated stay
+    // on their page, the cursor moves past them and they are retried once the listing wraps around.
+    private static final Map<String, String> migrationCursors = new ConcurrentHashMap<>();
+
+    public static boolean isHierarchical(JSONObject densifyConnection) {
+        return "hierarchical".equalsIgnoreCase(densifyConnection.optString("ParameterLayout", "flat"));
+    }
+
+    public static String getRecommendationPath(String awsAccount) {
+        return ROOT + awsAccount + RECOMMENDATION_FOLDER;
+    }
+
+    public static String recommendationParamName(String provisioningId, boolean hierarchical, String awsAccount) {
+        return hierarchical
+                ? getRecommendationPath(awsAccount) + provisioningId
+                : Helper.getParameterNamePrefix() + provisioningId;
+    }
+
+    // Both names a recommendation may be stored under, the one of the configured layout first
+    public static List<String> candidateNames(String provisioningId, boolean hierarchical, String awsAccount) {
+        return Arrays.asList(recommendationParamName(provisioningId, hierarchical, awsAccount),
+                recommendationParamName(provisioningId, !hierarchical, awsAccount));
+    }
+
+    // First candidate that has a value, null if the recommendation is not stored under any of them
+    public static String findStored(List<String> candidates, Map<String, String> values) {
+        for (String candidate : candidates) {
+            if (values.containsKey(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    public static String provisioningIdOf(String paramName) {
+        int folder = paramName.lastIndexOf(RECOMMENDATION_FOLDER);
+        if (paramName.startsWith(ROOT) && folder >= 0) {
+            return paramName.substring(folder + RECOMMENDATION_FOLDER.length());
+        }
+        return paramName.substring(Helper.getParameterNamePrefix().length());
+    }
+
+    // Parameter holding the time a refresh last found the recommendation in recommendationParamName unchanged.
+    // It sits beside the recommendations, listings by prefix or path do not pick it up.
+    public static String verifiedParamName(String recommendationParamName) {
+        int folder = recommendationParamName.lastIndexOf(RECOMMENDATION_FOLDER);
+        if (recommendationParamName.startsWith(ROOT) && folder >= 0) {
+            return recommendationParamName.substring(0, folder) + VERIFIED_FOLDER + provisioningIdOf(recommendationParamName);
+        }
+        return VERIFIED_PREFIX + provisioningIdOf(recommendationParamName);
+    }
+
+    // Moves one page of flat recommendation parameters below the hierarchical path of the account and deletes the
+    // flat ones in bulk. A value that already exists in the hierarchy wins over its flat copy.
+    // Returns the number of parameters migrated, repeated runs continue with the next page. Migration is a side job
+    // of Create and Update, it never fails them: errors are logged and the parameters are kept. Its throttling
+    // retries come from a budget of their own, the Create or Update keeps its full budget.
+    public static int migratePage(String awsAccount, AmazonWebServicesClientProxy proxy, Logger logger) {
+        return ParameterStoreRetry.withBudget(MIGRATION_RETRY_BUDGET, () -> migrate(awsAccount, proxy, logger));
+    }
+
+    private static int migrate(String awsAccount, AmazonWebServicesClientProxy proxy, Logger logger) {
+        String cursor = migrationCursors.remove(awsAccount);
+        try {
+            DescribeParametersResult page = Helper.describeParameters(Helper.getParameterNamePrefix(), cursor,
+                    MIGRATION_PAGE_SIZE, proxy, logger);
+            if (page == null || page.getParameters() == null || page.getParameters().isEmpty()) {
+                return 0;
+            }
+            if (page.getNextToken() != null) {
+                migrationCursors.put(awsAccount, page.getNextToken());
+            }
+
+            List<String> flatNames = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for (ParameterMetadata parameter : page.getParameters()) {
+                flatNames.add(parameter.getName());
+                names.add(parameter.getName());
+                names.add(recommendationParamName(provisioningIdOf(parameter.getName()), true, awsAccount));
+            }
+            Map<String, String> values = Helper.retrieveFromParameterStore(names, MIGRATION_FETCH_PARALLELISM, proxy, logger);
+
+            List<String> moved = new ArrayList<>();
+            for (String flatName : flatNames) {
+                String value = values.get(flatName);
+                String hierarchicalName = recommendationParamName(provisioningIdOf(flatName), true, awsAccount);
+                if (value == null) {
+                    logger.log("Could not read " + flatName + ", it is not migrated");
+                    continue;
+                }
+                try {
+                    if (!values.containsKey(hierarchicalName)
+                            && Helper.writeToParameterStore(hierarchicalName, value, false, proxy, logger) == null) {
+                        logger.log("Could not migrate " + flatName + ", it is kept");
+                        continue;
+                    }
+                } catch (Exception e) {
+                    logger.log("Could not migrate " + flatName + ", it is kept: " + e.getMessage());
+                    continue;
+                }
+                moved.add(flatName);
+            }
+            if (!moved.isEmpty() && Helper.deleteFromParameterStore(moved, proxy, logger) == null) {
+                // The hierarchical copies win, the flat ones are deleted by a later run
+                logger.log("Could not delete all migrated flat parameters, they are removed by a later migration");
+            }
+            logger.log("Migrated " + moved.size() + " recommendation parameters to " + getRecommendationPath(awsAccount));
+            return moved.size();
+        } catch (Exception e) {
+            logger.log("Migration of recommendation parameters to " + getRecommendationPath(awsAccount) + " failed: "
+                    + e.getMessage());
+            return 0;
+        }
+    }
+}
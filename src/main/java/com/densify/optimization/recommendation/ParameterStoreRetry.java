@@ -0,0 +1,111 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.cloudformation.proxy.Logger;
+import com.amazonaws.services.simplesystemsmanagement.model.TooManyUpdatesException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Retries Parameter Store calls that were throttled, with exponential backoff and full jitter. All calls of one
+// invocation share a retry budget, so a throttled stack fails within the handler timeout instead of retrying forever.
+// The SSM client itself does not retry, see AwsClients.
+public class ParameterStoreRetry {
+
+    public static final int MAX_ATTEMPTS = 5;
+    public static final int RETRY_BUDGET_PER_INVOCATION = 20;
+    private static final long BASE_DELAY_MILLIS = 100;
+    private static final long MAX_DELAY_MILLIS = 5 * 1000;
+
+    private static final Set<String> THROTTLING_ERROR_CODES = new HashSet<>(Arrays.asList(
+            "ThrottlingException", "Throttling", "TooManyUpdatesException", "RequestLimitExceeded",
+            "TooManyRequestsException", "ProvisionedThroughputExceededException", "RequestThrottled"));
+
+    // Handlers run one invocation at a time per container, the budget is reset when an invocation starts
+    private static final AtomicInteger remainingBudget = new AtomicInteger(RETRY_BUDGET_PER_INVOCATION);
+    private static final AtomicInteger invocationRetries = new AtomicInteger();
+    private static final AtomicLong totalRetries = new AtomicLong();
+    private static final AtomicLong totalThrottles = new AtomicLong();
+    private static final AtomicLong totalExhausted = new AtomicLong();
+
+    public static void beginInvocation() {
+        remainingBudget.set(RETRY_BUDGET_PER_INVOCATION);
+        invocationRetries.set(0);
+    }
+
+    // Runs a side job of the invocation with a retry budget of its own. Its retries neither use up the budget left
+    // for the calls the invocation is made for, nor can they exceed budget.
+    public static <T> T withBudget(int budget, Supplier<T> job) {
+        int shared = remainingBudget.getAndSet(budget);
+        try {
+            return job.get();
+        } finally {
+            remainingBudget.set(shared);
+        }
+    }
+
+    // Throttling and server side errors are worth retrying, anything else (not found, validation, access) is final
+    static boolean isRetryable(RuntimeException e) {
+        if (e instanceof TooManyUpdatesException) {
+            return true;
+        }
+        if (e instanceof AmazonServiceException) {
+            AmazonServiceException ase = (AmazonServiceException) e;
+            return THROTTLING_ERROR_CODES.contains(ase.getErrorCode()) || ase.getStatusCode() == 429
+                    || ase.getStatusCode() >= 500;
+        }
+        return e instanceof AmazonClientException && ((AmazonClientException) e).isRetryable();
+    }
+
+    static long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public static <T> T call(String operation, Supplier<T> call, Logger logger) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.get();
+            } catch (RuntimeException e) {
+                if (!isRetryable(e)) {
+                    throw e;
+                }
+                totalThrottles.incrementAndGet();
+                if (attempt >= MAX_ATTEMPTS || remainingBudget.getAndDecrement() <= 0) {
+                    totalExhausted.incrementAndGet();
+                    logger.log("Parameter Store " + operation + " still throttled after " + attempt + " attempts, giving up");
+                    throw e;
+                }
+                long delay = backoffMillis(attempt);
+                invocationRetries.incrementAndGet();
+                totalRetries.incrementAndGet();
+                logger.log("Parameter Store " + operation + " throttled, retry " + attempt + " in " + delay + " ms");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public static int getInvocationRetries() {
+        return invocationRetries.get();
+    }
+
+    public static JSONObject getStatistics() {
+        return new JSONObject()
+                .put("invocationRetries", invocationRetries.get())
+                .put("retries", totalRetries.get())
+                .put("throttled", totalThrottles.get())
+                .put("exhausted", totalExhausted.get());
+    }
+}
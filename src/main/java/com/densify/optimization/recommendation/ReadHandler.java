@@ -3,6 +3,11 @@ package com.densify.optimization.recommendation;
 import software.amazon.cloudformation.proxy.*;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 public class ReadHandler extends BaseHandler<CallbackContext> {
 
     @Override
@@ -12,6 +17,7 @@ public class ReadHandler extends BaseHandler<CallbackContext> {
             final CallbackContext callbackContext,
             final Logger logger) {
 
+        ParameterStoreRetry.beginInvocation();
         final ResourceModel model = request.getDesiredResourceState();
         logger.log("Reading values for " + model.getProvisioningID());
         OperationStatus currentStatus = OperationStatus.SUCCESS;
@@ -25,8 +31,23 @@ public class ReadHandler extends BaseHandler<CallbackContext> {
             Helper.setDensifyParameterName(model.getDensifyConnectionParameterName());
         }
 
-        String recommendationString = Helper.retrieveFromParameterStore(
-                Helper.getParameterNamePrefix() + model.getProvisioningID(), proxy, logger);
+        // Fetch the Densify connection and the verified parameters together with the recommendation. The connection
+        // decides the layout the recommendation is stored in and is needed if the recommendation has expired. Both
+        // layouts are read, so a switch of the layout does not lose existing recommendations.
+        List<String> candidates = ParameterNamespace.candidateNames(model.getProvisioningID(), false,
+                Helper.retrieveAWSAccount(proxy));
+        List<String> paramNames = new ArrayList<>(candidates);
+        for (String candidate : candidates) {
+            paramNames.add(ParameterNamespace.verifiedParamName(candidate));
+        }
+        paramNames.add(Helper.getDensifyParameterName());
+        Map<String, String> parameters = Helper.retrieveFromParameterStore(paramNames, proxy, logger);
+        JSONObject densifyConnection = Helper.getAndCheckDensifyInfo(parameters.get(Helper.getDensifyParameterName()), logger);
+        if (ParameterNamespace.isHierarchical(densifyConnection)) {
+            Collections.reverse(candidates);
+        }
+        String recommendationParamName = ParameterNamespace.findStored(candidates, parameters);
+        String recommendationString = recommendationParamName == null ? null : parameters.get(recommendationParamName);
 
         if (recommendationString == null) {
             currentStatus = OperationStatus.FAILED;
@@ -40,7 +61,7 @@ public class ReadHandler extends BaseHandler<CallbackContext> {
 
         JSONObject recommendation = null;
         try {
-            recommendation = new JSONObject(recommendationString);
+            recommendation = RecommendationCodec.decode(recommendationString);
             logger.log("Stored recommendation metadata: " + recommendation);
         } catch (Exception jse) {
             logger.log("Looks like stored recommendation has incorrect format.\n " + jse.getMessage());
@@ -52,21 +73,37 @@ public class ReadHandler extends BaseHandler<CallbackContext> {
             model.setTestAWSAccount(recommendation.getString("awsAccount"));
         }
 
-        if (!Helper.recommendationIsFresh(recommendation.getString("timestamp"))) {
-            logger.log("Stored recommendation is old, trying to refresh it");
+        RecommendationFreshness.State freshness = RecommendationFreshness.of(model,
+                Helper.lastConfirmed(recommendationParamName, recommendation.getString("timestamp"),
+                        parameters.get(ParameterNamespace.verifiedParamName(recommendationParamName))));
+        if (freshness == RecommendationFreshness.State.STALE) {
+            // Returned as is, the next Create/Update or a Read once it has expired refreshes it
+            logger.log("Stored recommendation is stale, returning it without a refresh");
+            msg = "Returned the stored recommendation, it is stale";
+        } else if (freshness == RecommendationFreshness.State.EXPIRED) {
+            // The refresh runs within this invocation, the Densify calls are bounded by the transport timeouts and
+            // skipped while the circuit to Densify is open. The stored recommendation is used if the refresh fails.
+            logger.log("Stored recommendation has expired, trying to refresh it");
             System.out.print("Refresh recommendation");
             model.setInstanceType(recommendation.getString("currentType"));
-            JSONObject refreshedRec = Helper.refreshRecommendation(model, proxy, logger);
+            JSONObject refreshedRec = Helper.refreshRecommendation(model, densifyConnection, recommendationParamName,
+                    recommendationString, proxy, logger);
             if (!refreshedRec.has("failed")) {
                 recommendation = refreshedRec;
+                msg = "Successfully read the value";
+            } else {
+                msg = "Returned the stored recommendation, it could not be refreshed: " + refreshedRec.optString("msg");
             }
-            msg = "Successfully read the value";
         }
 
         Helper.setModelFields(model, recommendation);
         model.setInstanceType(Helper.doRecommendationLogic(recommendation));
         logger.log("Result model: " + model.toString());
 
+        if (ParameterStoreRetry.getInvocationRetries() > 0) {
+            logger.log("Parameter Store retries: " + ParameterStoreRetry.getStatistics());
+        }
+
         return ProgressEvent.<ResourceModel, CallbackContext>builder()
                 .resourceModel(model)
                 .message(msg)
@@ -0,0 +1,246 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Process wide cache of parsed analysis results. Lives as long as the Lambda container, so warm
+// invocations for the same account skip ping, authorize and the analysis download.
+public class RecommendationCache {
+
+    public static final int DEFAULT_TTL_SECONDS = 300;
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    // Shared by every invocation that looks the analysis up, so it is never modified once created:
+    // neither the recommendations nor the index. Resolving more tags produces a new entry, see replace().
+    public static class Entry {
+        private final String key;
+        private final JSONArray recommendations;
+        private final RecommendationIndex index;
+        private final boolean fullyTagged;
+        private final long bytes;
+        private final AnalysisValidators validators;
+        private volatile long loadedAt;
+
+        private Entry(String key, JSONArray recommendations, long bytes, AnalysisValidators validators, long loadedAt) {
+            this.key = key;
+            this.recommendations = recommendations;
+            this.index = RecommendationIndex.build(recommendations);
+            this.fullyTagged = allTagged(recommendations);
+            this.bytes = bytes;
+            this.validators = validators;
+            this.loadedAt = loadedAt;
+        }
+
+        // Read only, use copyOf() for a version that can be changed
+        public JSONArray getRecommendations() {
+            return recommendations;
+        }
+
+        // Validators the analysis was served with, null if it can not be revalidated
+        public AnalysisValidators getValidators() {
+            return validators;
+        }
+
+        public RecommendationIndex getIndex() {
+            return index;
+        }
+
+        public boolean isFullyTagged() {
+            return fullyTagged;
+        }
+
+        private static boolean allTagged(JSONArray recommendations) {
+            for (int i = 0; i < recommendations.length(); i++) {
+                if (!recommendations.getJSONObject(i).has("tags")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Access ordered, so iteration starts from the least recently used entry
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long totalBytes = 0;
+    private static long ttlMillis = DEFAULT_TTL_SECONDS * 1000L;
+    private static int maxEntries = DEFAULT_MAX_ENTRIES;
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong revalidations = new AtomicLong();
+
+    private static String key(String densifyUrl, String awsAccount) {
+        return densifyUrl + "|" + awsAccount;
+    }
+
+    public static void configure(DensifyAPI densify) {
+        configure(densify.getIntOption("CacheTtlSeconds", DEFAULT_TTL_SECONDS),
+                densify.getIntOption("CacheMaxEntries", DEFAULT_MAX_ENTRIES),
+                densify.getIntOption("CacheMaxBytes", DEFAULT_MAX_BYTES));
+    }
+
+    public static synchronized void configure(long ttlSeconds, int maxEntryCount, long maxByteCount) {
+        ttlMillis = Math.max(0, ttlSeconds) * 1000L;
+        maxEntries = Math.max(0, maxEntryCount);
+        maxBytes = Math.max(0, maxByteCount);
+        evict();
+    }
+
+    public static synchronized boolean isEnabled() {
+        return ttlMillis > 0 && maxEntries > 0 && maxBytes > 0;
+    }
+
+    public static synchronized Entry get(String densifyUrl, String awsAccount) {
+        String key = key(densifyUrl, awsAccount);
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt > ttlMillis) {
+            // An expired analysis with validators stays until it is revalidated or pushed out by newer entries
+            if (entry.validators == null) {
+                remove(key);
+            }
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    // Returns the entry wrapping recommendations, whether or not it could be kept in the cache.
+    // The recommendations must not be changed afterwards.
+    public static synchronized Entry put(String densifyUrl, String awsAccount, JSONArray recommendations) {
+        return put(densifyUrl, awsAccount, recommendations, null);
+    }
+
+    public static synchronized Entry put(String densifyUrl, String awsAccount, JSONArray recommendations,
+                                         AnalysisValidators validators) {
+        return put(densifyUrl, awsAccount, recommendations, validators, AnalysisResultReader.estimateBytes(recommendations));
+    }
+
+    // bytes is the size estimated while the recommendations were parsed
+    public static synchronized Entry put(String densifyUrl, String awsAccount, JSONArray recommendations,
+                                         AnalysisValidators validators, long bytes) {
+        return store(new Entry(key(densifyUrl, awsAccount), recommendations, bytes, validators, System.currentTimeMillis()));
+    }
+
+    // Entry for recommendations that are not a complete analysis, it is never kept in the cache
+    public static Entry uncached(JSONArray recommendations) {
+        return new Entry(null, recommendations, AnalysisResultReader.estimateBytes(recommendations), null,
+                System.currentTimeMillis());
+    }
+
+    // Keeps an analysis that is already outdated, only to make the next download conditional on its validators
+    public static synchronized void putForRevalidation(String densifyUrl, String awsAccount, JSONArray recommendations,
+                                                       AnalysisValidators validators) {
+        if (validators != null) {
+            store(new Entry(key(densifyUrl, awsAccount), recommendations,
+                    AnalysisResultReader.estimateBytes(recommendations), validators, 0));
+        }
+    }
+
+    // New version of an entry, e.g. with more tags resolved. It takes the place of the old one if that is still
+    // cached, invocations that already hold the old entry keep using it unchanged.
+    public static synchronized Entry replace(Entry entry, JSONArray recommendations) {
+        Entry replacement = new Entry(entry.key, recommendations, AnalysisResultReader.estimateBytes(recommendations),
+                entry.validators, entry.loadedAt);
+        if (entry.key != null && entries.get(entry.key) == entry) {
+            store(replacement);
+        }
+        return replacement;
+    }
+
+    // Copy of the recommendations of an entry that can be changed without affecting the entry
+    public static JSONArray copyOf(Entry entry) {
+        JSONArray copy = new JSONArray();
+        for (int i = 0; i < entry.recommendations.length(); i++) {
+            JSONObject recommendation = entry.recommendations.getJSONObject(i);
+            String[] names = JSONObject.getNames(recommendation);
+            copy.put(names == null ? new JSONObject() : new JSONObject(recommendation, names));
+        }
+        return copy;
+    }
+
+    private static Entry store(Entry entry) {
+        if (!isEnabled() || entry.key == null || entry.bytes > maxBytes) {
+            return entry;
+        }
+        remove(entry.key);
+        entries.put(entry.key, entry);
+        totalBytes += entry.bytes;
+        evict();
+        return entry;
+    }
+
+    // Entry with validators for a conditional download, whether or not it expired
+    public static synchronized Entry getForRevalidation(String densifyUrl, String awsAccount) {
+        Entry entry = entries.get(key(densifyUrl, awsAccount));
+        return entry == null || entry.validators == null ? null : entry;
+    }
+
+    // Densify confirmed the analysis is unchanged, it is good for another TTL
+    public static synchronized void revalidated(String densifyUrl, String awsAccount, Entry entry) {
+        entry.loadedAt = System.currentTimeMillis();
+        revalidations.incrementAndGet();
+        if (entries.get(key(densifyUrl, awsAccount)) != entry) {
+            store(entry);
+        }
+    }
+
+    public static synchronized void invalidate(String densifyUrl, String awsAccount) {
+        remove(key(densifyUrl, awsAccount));
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    private static void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+        }
+    }
+
+    private static void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            boolean expired = now - entry.loadedAt > ttlMillis && entry.validators == null;
+            if (entries.size() > maxEntries || totalBytes > maxBytes || expired) {
+                iterator.remove();
+                totalBytes -= entry.bytes;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static synchronized JSONObject getStatistics() {
+        return new JSONObject()
+                .put("entries", entries.size())
+                .put("bytes", totalBytes)
+                .put("hits", hits.get())
+                .put("misses", misses.get())
+                .put("evictions", evictions.get())
+                .put("revalidations", revalidations.get());
+    }
+}
@@ -0,0 +1,50 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Format of the Densify_Recommendation_<id> parameters. Version 2 stores only the fields handlers use as a
+// positional array led by the version, e.g. [2,"m5.large","t3.large","Self Optimization","all",99.5,12.5,"...",null].
+// Version 1 is the full recommendation object written by earlier releases, it is still accepted when reading.
+public class RecommendationCodec {
+
+    public static final int VERSION = 2;
+
+    // Order of the values after the version, frozen for VERSION 2
+    static final String[] FIELDS = {"currentType", "recommendedType", "implementationMethod", "approvalType",
+            "predictedUptime", "savingsEstimate", "timestamp", "awsAccount"};
+
+    public static String encode(JSONObject recommendation) {
+        JSONArray encoded = new JSONArray().put(VERSION);
+        for (String field : FIELDS) {
+            encoded.put(recommendation.has(field) ? recommendation.get(field) : JSONObject.NULL);
+        }
+        // Trailing nulls carry no information
+        while (encoded.length() > 1 && encoded.isNull(encoded.length() - 1)) {
+            encoded.remove(encoded.length() - 1);
+        }
+        return encoded.toString();
+    }
+
+    // Throws JSONException if the value is neither format, e.g. the "failed to create" marker
+    public static JSONObject decode(String value) {
+        String trimmed = value.trim();
+        if (trimmed.startsWith("{")) {
+            return new JSONObject(trimmed);
+        }
+
+        JSONArray encoded = new JSONArray(trimmed);
+        int version = encoded.getInt(0);
+        if (version != VERSION) {
+            throw new JSONException("Unsupported recommendation format version " + version);
+        }
+        JSONObject recommendation = new JSONObject();
+        for (int i = 0; i < FIELDS.length && i + 1 < encoded.length(); i++) {
+            if (!encoded.isNull(i + 1)) {
+                recommendation.put(FIELDS[i], encoded.get(i + 1));
+            }
+        }
+        return recommendation;
+    }
+}
@@ -0,0 +1,27 @@
+package com.densify.optimization.recommendation;
+
+// The one list of recommendation fields the resource provider uses. Codec and snapshot store values by position,
+// they keep their own frozen copy per VERSION, so a field added here needs a new RecommendationCodec and
+// RecommendationSnapshot VERSION before it is persisted.
+public class RecommendationFields {
+
+    // Densify system the recommendation belongs to
+    static final String[] SYSTEM = {"name", "entityId"};
+
+    // What a resource gets from the recommendation
+    static final String[] RECOMMENDATION = {"currentType", "recommendedType", "implementationMethod", "approvalType",
+            "predictedUptime", "savingsEstimate"};
+
+    // Kept from the analysis results
+    public static final String[] ANALYSIS = concat(SYSTEM, RECOMMENDATION);
+
+    // Decide whether a stored recommendation changed, the timestamp and informational tags are left out
+    static final String[] STABLE = concat(RECOMMENDATION, "awsAccount");
+
+    private static String[] concat(String[] fields, String... more) {
+        String[] all = new String[fields.length + more.length];
+        System.arraycopy(fields, 0, all, 0, fields.length);
+        System.arraycopy(more, 0, all, fields.length, more.length);
+        return all;
+    }
+}
@@ -0,0 +1,44 @@
+package com.densify.optimization.recommendation;
+
+import java.time.LocalDateTime;
+
+// How long a stored recommendation is used without asking Densify. Within FreshSeconds it is used as is, up to
+// StaleSeconds Read returns it at once and reports it as stale, leaving the refresh to the next Create/Update.
+// After that Read refreshes it within the invocation. Both come from the FreshnessPolicy property of the resource,
+// or the defaults below.
+public class RecommendationFreshness {
+
+    public static final int DEFAULT_FRESH_SECONDS = 120;
+    public static final int DEFAULT_STALE_SECONDS = 3600;
+
+    public enum State {
+        FRESH, STALE, EXPIRED
+    }
+
+    public static int freshSeconds(ResourceModel model) {
+        FreshnessPolicy policy = model.getFreshnessPolicy();
+        if (policy == null || policy.getFreshSeconds() == null || policy.getFreshSeconds() < 0) {
+            return DEFAULT_FRESH_SECONDS;
+        }
+        return policy.getFreshSeconds();
+    }
+
+    // Never shorter than the fresh window
+    public static int staleSeconds(ResourceModel model) {
+        FreshnessPolicy policy = model.getFreshnessPolicy();
+        int staleSeconds = policy == null || policy.getStaleSeconds() == null
+                ? DEFAULT_STALE_SECONDS : policy.getStaleSeconds();
+        return Math.max(staleSeconds, freshSeconds(model));
+    }
+
+    public static State of(ResourceModel model, LocalDateTime confirmedAt) {
+        LocalDateTime now = LocalDateTime.now();
+        if (now.isBefore(confirmedAt.plusSeconds(freshSeconds(model)))) {
+            return State.FRESH;
+        }
+        if (now.isBefore(confirmedAt.plusSeconds(staleSeconds(model)))) {
+            return State.STALE;
+        }
+        return State.EXPIRED;
+    }
+}
@@ -0,0 +1,135 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class RecommendationIndex {
+
+    public enum MatchStrategy {
+        NAME, TAG, EITHER;
+
+        public static MatchStrategy fromString(String value) {
+            if (value == null) {
+                return NAME;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException iae) {
+                return NAME;
+            }
+        }
+
+        public boolean usesName() {
+            return this != TAG;
+        }
+
+        public boolean usesTags() {
+            return this != NAME;
+        }
+    }
+
+    private final Map<String, JSONObject> byName = new HashMap<>();
+    private final Map<String, JSONObject> byTag = new HashMap<>();
+    private final Set<String> duplicateNames = new LinkedHashSet<>();
+    private final Set<String> duplicateTags = new LinkedHashSet<>();
+
+    public static RecommendationIndex build(JSONArray recommendations) {
+        RecommendationIndex index = new RecommendationIndex();
+        for (int i = 0; i < recommendations.length(); i++) {
+            index.add(recommendations.getJSONObject(i));
+        }
+        return index;
+    }
+
+    private void add(JSONObject recommendation) {
+        if (recommendation.has("name")) {
+            String name = recommendation.getString("name");
+            // Keep the first system with a given name, same as the old linear scan did
+            if (byName.putIfAbsent(name, recommendation) != null) {
+                duplicateNames.add(name);
+            }
+        }
+        addTags(recommendation);
+    }
+
+    // Index tag values of a recommendation, an index is only filled while it is built
+    private void addTags(JSONObject recommendation) {
+        JSONArray tags = recommendation.optJSONArray("tags");
+        if (tags == null) {
+            return;
+        }
+        for (int i = 0; i < tags.length(); i++) {
+            String tag = tags.getString(i);
+            indexTagValue(tag.trim(), recommendation);
+
+            // Tags may come back as "key : value", index the value part as well
+            String value = tagValue(tag);
+            if (value != null) {
+                indexTagValue(value.trim(), recommendation);
+            }
+        }
+    }
+
+    // Keys may contain ':' themselves (aws:cloudformation:stack-name), so the value follows the last separator
+    static String tagValue(String tag) {
+        int separator = tag.lastIndexOf(" : ");
+        if (separator >= 0) {
+            return tag.substring(separator + 3);
+        }
+        separator = tag.lastIndexOf(':');
+        if (separator < 0) {
+            separator = tag.indexOf('=');
+        }
+        return separator < 0 ? null : tag.substring(separator + 1);
+    }
+
+    private void indexTagValue(String value, JSONObject recommendation) {
+        if (value.isEmpty()) {
+            return;
+        }
+        JSONObject existing = byTag.putIfAbsent(value, recommendation);
+        if (existing != null && existing != recommendation) {
+            duplicateTags.add(value);
+        }
+    }
+
+    public JSONObject matchByName(String name) {
+        return byName.get(name);
+    }
+
+    // Tag values shared by several systems are ambiguous and never match
+    public JSONObject matchByTag(String value) {
+        if (duplicateTags.contains(value)) {
+            return null;
+        }
+        return byTag.get(value);
+    }
+
+    public JSONObject match(String identifier, MatchStrategy strategy) {
+        JSONObject recommendation = null;
+        if (strategy.usesName()) {
+            recommendation = matchByName(identifier);
+        }
+        if (recommendation == null && strategy.usesTags()) {
+            recommendation = matchByTag(identifier);
+        }
+        return recommendation;
+    }
+
+    public int size() {
+        return byName.size();
+    }
+
+    public Set<String> getDuplicateNames() {
+        return duplicateNames;
+    }
+
+    public Set<String> getDuplicateTags() {
+        return duplicateTags;
+    }
+}
@@ -0,0 +1,227 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.AmazonWebServicesClientProxy;
+import com.amazonaws.cloudformation.proxy.Logger;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+// Create and Update obtain their recommendation in stages. Every invocation runs one stage and returns IN_PROGRESS,
+// so a slow Densify instance never holds one handler invocation for the whole round trip.
+// Stages that find nothing left to do (e.g. the analysis is cached) skip ahead, failures go straight to PERSIST
+// with the same fallback status connectAndGetRecommendation returns.
+public class RecommendationPipeline {
+
+    public enum Stage {
+        AUTHORIZE, LOCATE_ANALYSIS, FETCH_RESULTS, PERSIST
+    }
+
+    public static final int CALLBACK_DELAY_SECONDS = 1;
+    // Upper bound for the serialized callback context
+    public static final int MAX_CONTEXT_BYTES = 8 * 1024;
+
+    // A stage this version does not know, e.g. from a context handed on before an upgrade, starts over
+    public static Stage stageOf(CallbackContext context) {
+        if (context == null || context.getStage() == null) {
+            return Stage.AUTHORIZE;
+        }
+        try {
+            return Stage.valueOf(context.getStage());
+        } catch (IllegalArgumentException iae) {
+            return Stage.AUTHORIZE;
+        }
+    }
+
+    // Runs the current stage and returns the context for the next invocation. Once the stage is PERSIST,
+    // the context result holds the status to persist.
+    public static CallbackContext advance(CallbackContext context, JSONObject densifyConnection, ResourceModel model,
+                                          AmazonWebServicesClientProxy proxy, Logger logger) {
+        CallbackContext next = context == null ? new CallbackContext() : context;
+        Stage stage = stageOf(context);
+        long start = System.currentTimeMillis();
+
+        DensifyAPI densify = Helper.openDensify(densifyConnection);
+        RecommendationIndex.MatchStrategy strategy = RecommendationIndex.MatchStrategy.fromString(model.getMatchStrategy());
+        if (next.getAwsAccount() == null) {
+            next.setAwsAccount(Helper.awsAccountFor(model, proxy));
+        }
+        String awsAccount = next.getAwsAccount();
+
+        switch (stage) {
+            case AUTHORIZE:
+                authorize(next, densify, strategy, awsAccount, model, proxy, logger);
+                break;
+            case LOCATE_ANALYSIS:
+                locateAnalysis(next, densify, awsAccount, model, proxy, logger);
+                break;
+            case FETCH_RESULTS:
+                fetchResults(next, densify, strategy, awsAccount, model, proxy, logger);
+                break;
+            default:
+                break;
+        }
+        enforceSizeLimit(next, model, logger);
+        logger.log("Stage " + stage + " took " + (System.currentTimeMillis() - start) + " ms, next stage " + next.getStage());
+        return next;
+    }
+
+    // Connects unless a previous stage left a token that is still valid, then Densify is not contacted at all
+    private static JSONObject connect(CallbackContext context, DensifyAPI densify, ResourceModel model,
+                                      AmazonWebServicesClientProxy proxy, Logger logger) {
+        TokenCache.Token token = tokenOf(context);
+        if (token != null && token.isValid() && CircuitBreaker.forUrl(densify.getDensifyUrl()).allowRequest(logger)) {
+            logger.log("Resume with the Densify token of the previous stage");
+            densify.resumeWith(token);
+            return null;
+        }
+
+        JSONObject failure = Helper.connect(densify, model, proxy, logger);
+        if (failure == null) {
+            context.setApiToken(densify.getToken().getValue());
+            context.setTokenTimestamp(densify.getToken().getIssuedAt().toString());
+        }
+        return failure;
+    }
+
+    private static TokenCache.Token tokenOf(CallbackContext context) {
+        if (context.getApiToken() == null || context.getTokenTimestamp() == null) {
+            return null;
+        }
+        try {
+            return new TokenCache.Token(context.getApiToken(), LocalDateTime.parse(context.getTokenTimestamp()));
+        } catch (DateTimeParseException dtpe) {
+            return null;
+        }
+    }
+
+    // UTF-8 size of the context serialized as JSON, null fields included
+    static int sizeOf(CallbackContext context) {
+        JSONObject json = new JSONObject()
+                .put("stage", orNull(context.getStage()))
+                .put("apiToken", orNull(context.getApiToken()))
+                .put("tokenTimestamp", orNull(context.getTokenTimestamp()))
+                .put("awsAccount", orNull(context.getAwsAccount()))
+                .put("analysisResultsUrl", orNull(context.getAnalysisResultsUrl()))
+                .put("result", orNull(context.getResult()));
+        return json.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static Object orNull(String value) {
+        return value == null ? JSONObject.NULL : value;
+    }
+
+    // Tags are the only part of a recommendation without a bound and are not persisted, they go first. Then the
+    // result is cut down to the fields that are persisted, then values the next stage can recompute go.
+    // A context that is still too large ends the pipeline with the fallback status, so the size is always kept.
+    static void enforceSizeLimit(CallbackContext context, ResourceModel model, Logger logger) {
+        if (sizeOf(context) <= MAX_CONTEXT_BYTES) {
+            return;
+        }
+        if (context.getResult() != null) {
+            JSONObject result = new JSONObject(context.getResult());
+            JSONObject recommendation = result.optJSONObject("recommendation");
+            if (recommendation != null) {
+                recommendation.remove("tags");
+            }
+            context.setResult(result.toString());
+        }
+        if (sizeOf(context) > MAX_CONTEXT_BYTES) {
+            if (context.getResult() != null) {
+                JSONObject result = new JSONObject(context.getResult());
+                JSONObject recommendation = result.optJSONObject("recommendation");
+                if (recommendation != null) {
+                    result.put("recommendation", only(recommendation, RecommendationCodec.FIELDS));
+                }
+                context.setResult(result.toString());
+            }
+        }
+        if (sizeOf(context) > MAX_CONTEXT_BYTES) {
+            context.setAnalysisResultsUrl(null);
+            context.setApiToken(null);
+            context.setTokenTimestamp(null);
+        }
+        if (sizeOf(context) > MAX_CONTEXT_BYTES) {
+            logger.log("Callback context still exceeds " + MAX_CONTEXT_BYTES + " bytes, use the fallback");
+            context.setAwsAccount(null);
+            finish(context, Helper.connectionFailure(model,
+                    "Recommendation for " + model.getProvisioningID() + " is too large to hand on", logger));
+        }
+        logger.log("Callback context reduced to " + sizeOf(context) + " bytes");
+    }
+
+    private static JSONObject only(JSONObject json, String[] fields) {
+        JSONObject trimmed = new JSONObject();
+        for (String field : fields) {
+            if (json.has(field)) {
+                trimmed.put(field, json.get(field));
+            }
+        }
+        return trimmed;
+    }
+
+    private static void finish(CallbackContext context, JSONObject status) {
+        context.setResult(status.toString());
+        context.setStage(Stage.PERSIST.name());
+    }
+
+    private static void authorize(CallbackContext context, DensifyAPI densify, RecommendationIndex.MatchStrategy strategy,
+                                  String awsAccount, ResourceModel model, AmazonWebServicesClientProxy proxy, Logger logger) {
+        RecommendationCache.Entry analysis = Helper.lookupAnalysis(densify, awsAccount, proxy, logger);
+        if (analysis != null && Helper.isAnsweredByCache(analysis, model.getProvisioningID(), strategy)) {
+            JSONObject recommendation = Helper.matchRecommendation(densify, model.getProvisioningID(), strategy, analysis, logger);
+            finish(context, Helper.recommendationStatus(recommendation, model, logger));
+            return;
+        }
+
+        JSONObject failure = connect(context, densify, model, proxy, logger);
+        if (failure != null) {
+            finish(context, failure);
+        } else if (analysis != null) {
+            // The analysis is known, only the tags needed for matching have to come from Densify
+            finishWithMatch(context, densify, strategy, analysis, model, logger);
+        } else {
+            context.setStage(Stage.LOCATE_ANALYSIS.name());
+        }
+    }
+
+    private static void locateAnalysis(CallbackContext context, DensifyAPI densify, String awsAccount, ResourceModel model,
+                                       AmazonWebServicesClientProxy proxy, Logger logger) {
+        JSONObject failure = connect(context, densify, model, proxy, logger);
+        if (failure != null) {
+            finish(context, failure);
+            return;
+        }
+        String analysisResultsUrl = AnalysisLocator.locate(densify, awsAccount, proxy, logger);
+        if (analysisResultsUrl == null) {
+            finish(context, Helper.retrievalFailure(model));
+            return;
+        }
+        context.setAnalysisResultsUrl(analysisResultsUrl);
+        context.setStage(Stage.FETCH_RESULTS.name());
+    }
+
+    private static void fetchResults(CallbackContext context, DensifyAPI densify, RecommendationIndex.MatchStrategy strategy,
+                                     String awsAccount, ResourceModel model, AmazonWebServicesClientProxy proxy, Logger logger) {
+        JSONObject failure = connect(context, densify, model, proxy, logger);
+        if (failure != null) {
+            finish(context, failure);
+            return;
+        }
+        RecommendationCache.Entry analysis = Helper.fetchAnalysis(densify, awsAccount, context.getAnalysisResultsUrl(),
+                Helper.stopAtNameFor(densify, strategy, model), proxy, logger);
+        if (analysis == null) {
+            finish(context, Helper.retrievalFailure(model));
+            return;
+        }
+        finishWithMatch(context, densify, strategy, analysis, model, logger);
+    }
+
+    private static void finishWithMatch(CallbackContext context, DensifyAPI densify,
+                                        RecommendationIndex.MatchStrategy strategy, RecommendationCache.Entry analysis,
+                                        ResourceModel model, Logger logger) {
+        JSONObject recommendation = Helper.matchRecommendation(densify, model.getProvisioningID(), strategy, analysis, logger);
+        finish(context, Helper.recommendationStatus(recommendation, model, logger));
+    }
+}
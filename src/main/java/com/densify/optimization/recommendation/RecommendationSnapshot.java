@@ -0,0 +1,238 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.AmazonWebServicesClientProxy;
+import com.amazonaws.cloudformation.proxy.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Compact copy of all recommendations of an account shared by every resource in the account through ParameterStore.
+// The header parameter Densify_Snapshot_<account> points to chunk parameters Densify_Snapshot_<account>_<n>,
+// each chunk stays below the 4KB limit of standard tier parameters.
+public class RecommendationSnapshot {
+
+    public static final int VERSION = 1;
+    public static final int DEFAULT_TTL_SECONDS = 300;
+    public static final int DEFAULT_MAX_CHUNKS = 40;
+
+    // Order of the values in a compact recommendation entry, frozen for VERSION 1
+    static final String[] FIELDS = {"name", "entityId", "currentType", "recommendedType", "implementationMethod",
+            "approvalType", "predictedUptime", "savingsEstimate", "tags"};
+    private static final int TAGS_POSITION = Arrays.asList(FIELDS).indexOf("tags");
+
+    private static final int CHUNK_SIZE_LIMIT = 4096;
+    // Room for the chunk envelope around the entries
+    private static final int CHUNK_OVERHEAD = 128;
+    // GetParameters accepts at most 10 names, so the header is read together with the first 9 chunks
+    private static final int CHUNKS_READ_WITH_HEADER = 9;
+
+    private static final String SNAPSHOT_PARAM_NAME_PREFIX = "Densify_Snapshot_";
+
+    public static boolean isEnabled(DensifyAPI densify) {
+        return densify.getBooleanOption("RecommendationSnapshot", false);
+    }
+
+    public static String getHeaderParamName(String awsAccount) {
+        return SNAPSHOT_PARAM_NAME_PREFIX + awsAccount;
+    }
+
+    public static String getChunkParamName(String awsAccount, int chunk) {
+        return SNAPSHOT_PARAM_NAME_PREFIX + awsAccount + "_" + chunk;
+    }
+
+    static JSONArray encode(JSONObject recommendation) {
+        JSONArray entry = new JSONArray();
+        for (String field : FIELDS) {
+            entry.put(recommendation.has(field) ? recommendation.get(field) : JSONObject.NULL);
+        }
+        return entry;
+    }
+
+    static JSONObject decode(JSONArray entry) {
+        JSONObject recommendation = new JSONObject();
+        for (int i = 0; i < FIELDS.length && i < entry.length(); i++) {
+            if (!entry.isNull(i)) {
+                recommendation.put(FIELDS[i], entry.get(i));
+            }
+        }
+        return recommendation;
+    }
+
+    // Splits the recommendations into chunk values, or returns null if they need more than maxChunks parameters or
+    // a single system does not fit into a parameter. Readers take a snapshot as the complete analysis, so every
+    // system has to be in it.
+    static List<String> buildChunks(String snapshotId, JSONArray recommendations, int maxChunks) {
+        List<String> chunks = new ArrayList<>();
+        JSONArray current = new JSONArray();
+        int currentSize = 0;
+        for (int i = 0; i < recommendations.length(); i++) {
+            JSONArray entry = encode(recommendations.getJSONObject(i));
+            int entrySize = entrySize(entry);
+            if (entrySize > CHUNK_SIZE_LIMIT - CHUNK_OVERHEAD && !entry.isNull(TAGS_POSITION)) {
+                // Tags of a system without them are resolved again when a match needs them
+                entry.put(TAGS_POSITION, JSONObject.NULL);
+                entrySize = entrySize(entry);
+            }
+            if (entrySize > CHUNK_SIZE_LIMIT - CHUNK_OVERHEAD) {
+                return null;
+            }
+            if (currentSize + entrySize > CHUNK_SIZE_LIMIT - CHUNK_OVERHEAD) {
+                chunks.add(chunkValue(snapshotId, current));
+                current = new JSONArray();
+                currentSize = 0;
+            }
+            current.put(entry);
+            currentSize += entrySize;
+        }
+        if (current.length() > 0) {
+            chunks.add(chunkValue(snapshotId, current));
+        }
+        return chunks.size() > maxChunks ? null : chunks;
+    }
+
+    private static int entrySize(JSONArray entry) {
+        return entry.toString().getBytes(StandardCharsets.UTF_8).length + 1;
+    }
+
+    private static String chunkValue(String snapshotId, JSONArray entries) {
+        return new JSONObject()
+                .put("v", VERSION)
+                .put("id", snapshotId)
+                .put("r", entries)
+                .toString();
+    }
+
+    // validators of the download are kept in the header, so a snapshot that is outdated can still be revalidated
+    public static void write(String awsAccount, JSONArray recommendations, AnalysisValidators validators, DensifyAPI densify,
+                             AmazonWebServicesClientProxy proxy, Logger logger) {
+        String snapshotId = UUID.randomUUID().toString();
+        List<String> chunks = buildChunks(snapshotId, recommendations,
+                densify.getIntOption("SnapshotMaxChunks", DEFAULT_MAX_CHUNKS));
+        if (chunks == null) {
+            logger.log("Analysis for " + awsAccount + " does not fit into a recommendation snapshot");
+            return;
+        }
+
+        // Chunks go first, the header makes the new snapshot visible to readers
+        for (int i = 0; i < chunks.size(); i++) {
+            if (Helper.writeToParameterStore(getChunkParamName(awsAccount, i), chunks.get(i), false, proxy, logger) == null) {
+                logger.log("Failed to write recommendation snapshot chunk " + i + " for " + awsAccount);
+                return;
+            }
+        }
+        JSONObject header = new JSONObject()
+                .put("v", VERSION)
+                .put("id", snapshotId)
+                .put("timestamp", LocalDateTime.now().toString())
+                .put("chunks", chunks.size())
+                .put("count", recommendations.length());
+        if (validators != null) {
+            header.put("validators", validators.toJson());
+        }
+        Helper.writeToParameterStore(getHeaderParamName(awsAccount), header.toString(), false, proxy, logger);
+        logger.log("Wrote recommendation snapshot for " + awsAccount + " in " + chunks.size() + " chunks");
+    }
+
+    // Densify confirmed the analysis with the given validators is unchanged, only the header timestamp is renewed.
+    // The snapshot may have been replaced by another container since it was read, it is only renewed if it still
+    // holds that analysis.
+    public static void touch(String awsAccount, AnalysisValidators validators, AmazonWebServicesClientProxy proxy,
+                             Logger logger) {
+        String headerValue = Helper.retrieveFromParameterStore(getHeaderParamName(awsAccount), proxy, logger);
+        if (headerValue == null || validators == null) {
+            return;
+        }
+        try {
+            JSONObject header = new JSONObject(headerValue);
+            if (!validators.equals(AnalysisValidators.fromJson(header.optJSONObject("validators")))) {
+                logger.log("Recommendation snapshot for " + awsAccount + " holds another analysis, it is not renewed");
+                return;
+            }
+            header.put("timestamp", LocalDateTime.now().toString());
+            Helper.writeToParameterStore(getHeaderParamName(awsAccount), header.toString(), false, proxy, logger);
+        } catch (JSONException jse) {
+            logger.log("Recommendation snapshot header for " + awsAccount + " has incorrect format");
+        }
+    }
+
+    // Puts the recommendations of a fresh snapshot into the RecommendationCache and returns the entry, or null if
+    // there is none or it can not be used. An outdated snapshot with validators is handed to the cache for revalidation.
+    public static RecommendationCache.Entry read(String awsAccount, DensifyAPI densify, AmazonWebServicesClientProxy proxy,
+                                                 Logger logger) {
+        List<String> names = new ArrayList<>();
+        names.add(getHeaderParamName(awsAccount));
+        for (int i = 0; i < CHUNKS_READ_WITH_HEADER; i++) {
+            names.add(getChunkParamName(awsAccount, i));
+        }
+        Map<String, String> parameters = Helper.retrieveFromParameterStore(names, proxy, logger);
+
+        String headerValue = parameters.get(getHeaderParamName(awsAccount));
+        if (headerValue == null) {
+            return null;
+        }
+
+        int chunkCount;
+        String snapshotId;
+        boolean outdated;
+        AnalysisValidators validators;
+        try {
+            JSONObject header = new JSONObject(headerValue);
+            LocalDateTime written = LocalDateTime.parse(header.getString("timestamp"));
+            int ttlSeconds = densify.getIntOption("SnapshotTtlSeconds", DEFAULT_TTL_SECONDS);
+            validators = AnalysisValidators.fromJson(header.optJSONObject("validators"));
+            outdated = LocalDateTime.now().isAfter(written.plusSeconds(ttlSeconds));
+            if (header.getInt("v") != VERSION || (outdated && validators == null)) {
+                logger.log("Recommendation snapshot for " + awsAccount + " is outdated");
+                return null;
+            }
+            chunkCount = header.getInt("chunks");
+            snapshotId = header.getString("id");
+        } catch (DateTimeParseException | JSONException e) {
+            logger.log("Recommendation snapshot header for " + awsAccount + " has incorrect format");
+            return null;
+        }
+
+        List<String> remaining = new ArrayList<>();
+        for (int i = CHUNKS_READ_WITH_HEADER; i < chunkCount; i++) {
+            remaining.add(getChunkParamName(awsAccount, i));
+        }
+        if (!remaining.isEmpty()) {
+            parameters.putAll(Helper.retrieveFromParameterStore(remaining, proxy, logger));
+        }
+
+        JSONArray recommendations = new JSONArray();
+        try {
+            for (int i = 0; i < chunkCount; i++) {
+                String chunkValue = parameters.get(getChunkParamName(awsAccount, i));
+                JSONObject chunk = chunkValue == null ? null : new JSONObject(chunkValue);
+                // A chunk from another snapshot means a writer is in the middle of replacing it
+                if (chunk == null || !snapshotId.equals(chunk.optString("id"))) {
+                    logger.log("Recommendation snapshot for " + awsAccount + " is incomplete");
+                    return null;
+                }
+                JSONArray entries = chunk.getJSONArray("r");
+                for (int j = 0; j < entries.length(); j++) {
+                    recommendations.put(decode(entries.getJSONArray(j)));
+                }
+            }
+        } catch (JSONException jse) {
+            logger.log("Recommendation snapshot for " + awsAccount + " has incorrect format");
+            return null;
+        }
+        if (outdated) {
+            logger.log("Recommendation snapshot for " + awsAccount + " is outdated, it is kept for revalidation");
+            RecommendationCache.putForRevalidation(densify.getDensifyUrl(), awsAccount, recommendations, validators);
+            return null;
+        }
+        return RecommendationCache.put(densify.getDensifyUrl(), awsAccount, recommendations, validators);
+    }
+}
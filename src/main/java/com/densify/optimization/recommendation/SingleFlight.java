@@ -0,0 +1,65 @@
+package com.densify.optimization.recommendation;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Collapses concurrent calls for the same key into one: the first caller runs the loader, callers arriving
+// while it runs wait for and share its result, or its exception. Nothing is kept once the call finished.
+public class SingleFlight<K, V> {
+
+    private static class Call<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        // Callers that joined the call and wait for its result
+        private final AtomicInteger waiters = new AtomicInteger();
+    }
+
+    private final Map<K, Call<V>> inFlight = new ConcurrentHashMap<>();
+
+    public V execute(K key, Supplier<V> loader) {
+        Call<V> call = new Call<>();
+        Call<V> running = inFlight.putIfAbsent(key, call);
+        if (running != null) {
+            running.waiters.incrementAndGet();
+            return await(running.result);
+        }
+
+        try {
+            V value = loader.get();
+            call.result.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    public boolean isInFlight(K key) {
+        return inFlight.containsKey(key);
+    }
+
+    // Callers waiting for the running call of key, 0 if there is none
+    public int getWaiters(K key) {
+        Call<V> running = inFlight.get(key);
+        return running == null ? 0 : running.waiters.get();
+    }
+
+    private static <V> V await(CompletableFuture<V> running) {
+        try {
+            return running.join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ce.getCause();
+            }
+            if (ce.getCause() instanceof Error) {
+                throw (Error) ce.getCause();
+            }
+            throw ce;
+        }
+    }
+}
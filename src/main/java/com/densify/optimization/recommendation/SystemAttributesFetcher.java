@@ -0,0 +1,61 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.Logger;
+import org.json.JSONArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class SystemAttributesFetcher {
+
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    private final int parallelism;
+
+    public SystemAttributesFetcher(int parallelism) {
+        this.parallelism = parallelism < 1 ? 1 : parallelism;
+    }
+
+    // Runs GET requests for all urls with at most `parallelism` requests in flight, on the pooled transport of the host.
+    // Result at index i belongs to url at index i. A request that failed is logged and left as null,
+    // so one bad system does not abort the rest of the batch.
+    public JSONArray[] fetchAll(List<String> requestUrls, Map<String, String> headers, Logger logger) {
+        JSONArray[] responses = new JSONArray[requestUrls.size()];
+        if (requestUrls.isEmpty()) {
+            return responses;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, requestUrls.size()), runnable -> {
+            Thread thread = new Thread(runnable, "densify-system-fetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<JSONArray>> futures = new ArrayList<>(requestUrls.size());
+            for (String requestUrl : requestUrls) {
+                futures.add(TransportRegistry.forUrl(requestUrl)
+                        .sendAsync(DensifyRequest.get(requestUrl, headers), Helper::parseJsonResponse, executor));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    responses[i] = futures.get(i).get();
+                } catch (ExecutionException ee) {
+                    logger.log("Failed to fetch " + requestUrls.get(i) + ": " + ee.getCause());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    logger.log("Interrupted while fetching system attributes");
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return responses;
+    }
+}
@@ -0,0 +1,109 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.Logger;
+import org.json.JSONObject;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Container wide cache of Densify API tokens keyed by (DensifyUrl, username). Only one authorize call per key
+// is in flight at a time, and tokens that are in use are renewed in the background before they expire.
+public class TokenCache {
+
+    // Same lifetime the handlers always assumed for a token
+    public static final int TOKEN_TTL_SECONDS = 300;
+    public static final int DEFAULT_RENEW_AFTER_SECONDS = 240;
+
+    public static class Token {
+        private final String value;
+        private final LocalDateTime issuedAt;
+        private volatile boolean used = false;
+
+        public Token(String value, LocalDateTime issuedAt) {
+            this.value = value;
+            this.issuedAt = issuedAt;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public LocalDateTime getIssuedAt() {
+            return issuedAt;
+        }
+
+        public boolean isValid() {
+            return LocalDateTime.now().isBefore(issuedAt.plusSeconds(TOKEN_TTL_SECONDS));
+        }
+    }
+
+    private static final Map<String, Token> tokens = new ConcurrentHashMap<>();
+    private static final SingleFlight<String, Token> refreshes = new SingleFlight<>();
+    private static final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "densify-token-renewal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static String key(String densifyUrl, String username) {
+        return densifyUrl + "|" + username;
+    }
+
+    // Valid cached token, or null
+    public static Token get(String densifyUrl, String username) {
+        Token token = tokens.get(key(densifyUrl, username));
+        if (token == null || !token.isValid()) {
+            return null;
+        }
+        token.used = true;
+        return token;
+    }
+
+    // Callers waiting for an authorize call of another caller with the same key
+    static int getWaitingRefreshes(String densifyUrl, String username) {
+        return refreshes.getWaiters(key(densifyUrl, username));
+    }
+
+    // Seeds the cache with a token that was issued elsewhere, e.g. stored in ParameterStore by another container
+    public static void put(String densifyUrl, String username, Token token) {
+        tokens.merge(key(densifyUrl, username), token,
+                (current, offered) -> offered.issuedAt.isAfter(current.issuedAt) ? offered : current);
+    }
+
+    // Authorizes unless another caller is already doing it for the same key, then shares its token.
+    // Returns null if authorization failed.
+    public static Token refresh(String densifyUrl, String username, Function<Logger, JSONObject> authorize,
+                                int renewAfterSeconds, Logger logger) {
+        String key = key(densifyUrl, username);
+        return refreshes.execute(key, () -> {
+            JSONObject authorization = authorize.apply(logger);
+            if (!Integer.valueOf(200).equals(authorization.opt("status"))) {
+                logger.log("Failed to perform authorization:" + authorization.opt("message"));
+                return null;
+            }
+            Token token = new Token(authorization.get("apiToken").toString(), LocalDateTime.now());
+            tokens.put(key, token);
+            scheduleRenewal(densifyUrl, username, token, authorize, renewAfterSeconds, logger);
+            return token;
+        });
+    }
+
+    // The renewal logs to the logger of the invocation that authorized
+    private static void scheduleRenewal(String densifyUrl, String username, Token token, Function<Logger, JSONObject> authorize,
+                                        int renewAfterSeconds, Logger logger) {
+        if (renewAfterSeconds <= 0 || renewAfterSeconds >= TOKEN_TTL_SECONDS) {
+            return;
+        }
+        renewer.schedule(() -> {
+            // Renew only tokens that are still current and were handed out since they were issued
+            if (tokens.get(key(densifyUrl, username)) == token && token.used) {
+                refresh(densifyUrl, username, authorize, renewAfterSeconds, logger);
+            }
+        }, renewAfterSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,56 @@
+package com.densify.optimization.recommendation;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// One transport per Densify host for the lifetime of the container, so connections are shared between requests
+// and invocations. The factory can be replaced to plug in a different transport implementation.
+public class TransportRegistry {
+
+    private static final Map<String, DensifyTransport> transports = new ConcurrentHashMap<>();
+    private static volatile int connectTimeoutMillis = UrlConnectionTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private static volatile int readTimeoutMillis = UrlConnectionTransport.DEFAULT_READ_TIMEOUT_MILLIS;
+    private static volatile Function<String, DensifyTransport> factory = host -> new UrlConnectionTransport(
+            connectTimeoutMillis, readTimeoutMillis, UrlConnectionTransport.DEFAULT_MAX_CONCURRENT_REQUESTS);
+
+    static String hostKey(String url) {
+        try {
+            URL parsed = new URL(url);
+            int port = parsed.getPort() == -1 ? parsed.getDefaultPort() : parsed.getPort();
+            return parsed.getProtocol() + "://" + parsed.getHost() + ":" + port;
+        } catch (MalformedURLException mue) {
+            return url;
+        }
+    }
+
+    public static DensifyTransport forUrl(String url) {
+        return transports.computeIfAbsent(hostKey(url), factory);
+    }
+
+    public static void configure(DensifyAPI densify) {
+        configureTimeouts(densify.getIntOption("ConnectTimeoutMillis", UrlConnectionTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS),
+                densify.getIntOption("ReadTimeoutMillis", UrlConnectionTransport.DEFAULT_READ_TIMEOUT_MILLIS));
+    }
+
+    // Timeouts used by the default transport. Transports are only recreated if the timeouts actually changed.
+    public static synchronized void configureTimeouts(int connectMillis, int readMillis) {
+        if (connectMillis > 0 && readMillis > 0
+                && (connectMillis != connectTimeoutMillis || readMillis != readTimeoutMillis)) {
+            connectTimeoutMillis = connectMillis;
+            readTimeoutMillis = readMillis;
+            transports.clear();
+        }
+    }
+
+    public static void setFactory(Function<String, DensifyTransport> transportFactory) {
+        factory = transportFactory;
+        transports.clear();
+    }
+
+    public static void register(String url, DensifyTransport transport) {
+        transports.put(hostKey(url), transport);
+    }
+}
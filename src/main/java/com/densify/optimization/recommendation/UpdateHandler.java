@@ -3,6 +3,11 @@ package com.densify.optimization.recommendation;
 import software.amazon.cloudformation.proxy.*;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 public class UpdateHandler extends BaseHandler<CallbackContext> {
 
     @Override
@@ -12,6 +17,7 @@ public class UpdateHandler extends BaseHandler<CallbackContext> {
             final CallbackContext callbackContext,
             final Logger logger) {
 
+        ParameterStoreRetry.beginInvocation();
         final ResourceModel model = request.getDesiredResourceState();
         final ResourceModel prevModel = request.getPreviousResourceState();
 
@@ -31,61 +37,119 @@ public class UpdateHandler extends BaseHandler<CallbackContext> {
         }
 
         logger.log("Updating resource with logical ID: " + request.getLogicalResourceIdentifier());
-        //First of all, need to delete currently existing parameter for this resource (if there is one)
-        String prevRecommendationStr = null;
-
-        if (prevModel != null && prevModel.getProvisioningID() != null) {
-            prevRecommendationStr = Helper.retrieveFromParameterStore(Helper.getParameterNamePrefix() + prevModel.getProvisioningID(), proxy, logger);
-            logger.log("Deleting old resource " + prevModel.getProvisioningID());
-            String deleteStatus = Helper.deleteFromParameterStore(Helper.getParameterNamePrefix() + prevModel.getProvisioningID(), proxy);
-            logger.log("Successfully deleted records for " + prevModel.getProvisioningID());
-        }
+        final boolean firstInvocation = callbackContext == null || callbackContext.getStage() == null;
+        final RecommendationPipeline.Stage stage = RecommendationPipeline.stageOf(callbackContext);
+        // With an unchanged ProvisioningID the parameter is overwritten in place, or left alone if nothing changed
+        final boolean sameParameter = prevModel != null && model.getProvisioningID() != null
+                && model.getProvisioningID().equals(prevModel.getProvisioningID());
+        final String awsAccount = Helper.retrieveAWSAccount(proxy);
+        final List<String> prevParamNames = prevModel != null && prevModel.getProvisioningID() != null
+                ? ParameterNamespace.candidateNames(prevModel.getProvisioningID(), false, awsAccount)
+                : new ArrayList<>();
 
-        // Try to parse previous recommendation
-        JSONObject prevRecommendation = null;
-        try {
-            if (prevRecommendationStr != null) {
-                prevRecommendation = new JSONObject(prevRecommendationStr);
-            }
-        } catch (Exception e) {
-            // Do nothing
+        // Read everything this stage needs from ParameterStore in one round trip. The connection is read by every
+        // stage, it also selects the layout of the recommendation parameter.
+        List<String> paramNames = new ArrayList<>();
+        paramNames.add(Helper.getDensifyParameterName());
+        if (firstInvocation || sameParameter) {
+            paramNames.addAll(prevParamNames);
         }
-        // Now create new state of the resource
-        JSONObject densifyConnection = Helper.getAndCheckDensifyInfo(proxy, logger);
-        if (densifyConnection.has("failed")) {
-            currentStatus = OperationStatus.FAILED;
-            msg = densifyConnection.getString("msg");
+        // Any stage may end up persisting the result, see below
+        if (model.getForceUpdate() != null) {
+            paramNames.add(Helper.getTimestampParamName());
         }
-        // If was unable to retrieve Densify, or parameter already exists, then makes no sense to continue
-        if (OperationStatus.FAILED.equals(currentStatus)) {
-            return ProgressEvent.<ResourceModel, CallbackContext>builder().message(msg).status(currentStatus).build();
+        Map<String, String> parameters = Helper.retrieveFromParameterStore(paramNames, proxy, logger);
+        JSONObject densifyConnection = Helper.getAndCheckDensifyInfo(parameters.get(Helper.getDensifyParameterName()), logger);
+        final boolean hierarchical = ParameterNamespace.isHierarchical(densifyConnection);
+        final String recommendationParamName = ParameterNamespace.recommendationParamName(model.getProvisioningID(),
+                hierarchical, awsAccount);
+        if (hierarchical) {
+            Collections.reverse(prevParamNames);
         }
+        final String prevParamName = ParameterNamespace.findStored(prevParamNames, parameters);
+        String prevRecommendationStr = prevParamName == null ? null : parameters.get(prevParamName);
+
+        CallbackContext context = callbackContext;
+        if (stage != RecommendationPipeline.Stage.PERSIST) {
+            if (firstInvocation) {
+                //First of all, need to delete currently existing parameters for this resource (if there are any)
+                if (prevParamName != null && !sameParameter) {
+                    logger.log("Deleting old resource " + prevModel.getProvisioningID());
+                    Helper.deleteFromParameterStore(prevParamNames, proxy, logger);
+                    logger.log("Successfully deleted records for " + prevModel.getProvisioningID());
+                }
+
+                if (hierarchical && densifyConnection.optBoolean("MigrateParameters", false)) {
+                    ParameterNamespace.migratePage(awsAccount, proxy, logger);
+                }
+
+                // Try to parse previous recommendation
+                JSONObject prevRecommendation = null;
+                try {
+                    if (prevRecommendationStr != null) {
+                        prevRecommendation = RecommendationCodec.decode(prevRecommendationStr);
+                    }
+                } catch (Exception e) {
+                    // Do nothing
+                }
+
+                // If default instance type is not set, try to use one from previous recommendation.
+                // The model is handed back with every stage, so this carries over to the later ones.
+                if (model.getInstanceType() == null && prevRecommendation != null && prevRecommendation.has("currentType")){
+                    logger.log("No fallback size specified, use previous recommendation data");
+                    model.setInstanceType(prevRecommendation.getString("currentType"));
+                }
+            }
+
+            // Now create new state of the resource
+            if (densifyConnection.has("failed")) {
+                currentStatus = OperationStatus.FAILED;
+                msg = densifyConnection.getString("msg");
+            }
+            // If was unable to retrieve Densify, or parameter already exists, then makes no sense to continue
+            if (OperationStatus.FAILED.equals(currentStatus)) {
+                return ProgressEvent.<ResourceModel, CallbackContext>builder().message(msg).status(currentStatus).build();
+            }
 
-        // If default instance type is not set, try to use one from previous recommendation
-        if (model.getInstanceType() == null && prevRecommendation != null && prevRecommendation.has("currentType")){
-            logger.log("No fallback size specified, use previous recommendation data");
-            model.setInstanceType(prevRecommendation.getString("currentType"));
+            context = RecommendationPipeline.advance(callbackContext, densifyConnection, model, proxy, logger);
+            // A stage that reached the result, e.g. a match answered by the cached analysis, is persisted right away
+            if (RecommendationPipeline.stageOf(context) != RecommendationPipeline.Stage.PERSIST) {
+                return ProgressEvent.<ResourceModel, CallbackContext>builder()
+                        .resourceModel(model)
+                        .callbackContext(context)
+                        .callbackDelaySeconds(RecommendationPipeline.CALLBACK_DELAY_SECONDS)
+                        .status(OperationStatus.IN_PROGRESS)
+                        .build();
+            }
         }
 
-        JSONObject status = Helper.connectAndGetRecommendation(densifyConnection, model, proxy, logger);
+        JSONObject status = new JSONObject(context.getResult());
         if (status.has("failed") && !status.has("recommendation")) {
             currentStatus = OperationStatus.FAILED;
-            Helper.writeToParameterStore(Helper.getParameterNamePrefix() + model.getProvisioningID(),
-                    "failed to create", false, proxy);
+            Helper.writeToParameterStore(recommendationParamName, "failed to create", false, proxy, logger);
             logger.log("Failed to generate InstanceType for " + model.getProvisioningID());
 
         } else {
             JSONObject recommendation = status.getJSONObject("recommendation");
             Helper.setModelFields(model, recommendation);
-            Helper.writeToParameterStore(Helper.getParameterNamePrefix() + model.getProvisioningID(),
-                    recommendation.toString(), false, proxy);
+            boolean sameLayout = sameParameter && recommendationParamName.equals(prevParamName);
+            Helper.writeRecommendationIfChanged(recommendationParamName, recommendation,
+                    sameLayout ? prevRecommendationStr : null, RecommendationFreshness.freshSeconds(model), proxy, logger);
+            // The layout changed since the resource was stored, the copy under the old name is removed
+            if (sameParameter && prevParamName != null && !sameLayout) {
+                Helper.deleteFromParameterStore(Collections.singletonList(prevParamName), proxy, logger);
+            }
 
             if (model.getForceUpdate() != null) {
-                Helper.updateDensifyRefreshParameter(proxy, logger);
+                Helper.updateDensifyRefreshParameter(parameters.get(Helper.getTimestampParamName()), proxy, logger);
             }
         }
         msg = status.getString("msg");
 
+        if (ParameterStoreRetry.getInvocationRetries() > 0) {
+            logger.log("Parameter Store retries: " + ParameterStoreRetry.getStatistics());
+        }
+
         return ProgressEvent.<ResourceModel, CallbackContext>builder()
                 .resourceModel(model)
                 .status(currentStatus)
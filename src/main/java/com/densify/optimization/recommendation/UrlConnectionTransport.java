@@ -0,0 +1,123 @@
+package com.densify.optimization.recommendation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// HttpURLConnection based transport. The JDK keeps idle keep-alive connections per host and hands them out again,
+// as long as every response body (including error bodies) is read to the end and closed, which send() takes care of.
+// HttpURLConnection only speaks HTTP/1.1; an HTTP/2 capable client can be plugged in through TransportRegistry.
+public class UrlConnectionTransport implements DensifyTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60 * 1000;
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
+    // Bodies larger than this are not drained, the connection is closed instead
+    private static final int DRAIN_LIMIT_BYTES = 64 * 1024;
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final ExecutorService executor;
+
+    public UrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis, int maxConcurrentRequests) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "densify-transport");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    public UrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    @Override
+    public Executor executor() {
+        return executor;
+    }
+
+    @Override
+    public <T> T send(DensifyRequest request, DensifyResponse.Handler<T> handler) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestMethod(request.getMethod());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        CompressedTransfer.requestCompression(connection);
+
+        boolean reusable = false;
+        long start = System.currentTimeMillis();
+        try {
+            if (request.getBody() != null) {
+                connection.setDoOutput(true);
+                try (OutputStream os = connection.getOutputStream()) {
+                    os.write(request.getBody().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            int statusCode;
+            try {
+                statusCode = connection.getResponseCode();
+            } catch (IOException e) {
+                DensifyHealth.recordFailure(request.getUrl());
+                CircuitBreaker.recordCall(request.getUrl(), System.currentTimeMillis() - start, true);
+                throw e;
+            }
+            // Any answer below 500 means the server is up, even if this particular request was rejected.
+            // Latency is taken up to the response headers, so large bodies do not count as slow calls.
+            if (statusCode < 500) {
+                DensifyHealth.recordSuccess(request.getUrl());
+            } else {
+                DensifyHealth.recordFailure(request.getUrl());
+            }
+            CircuitBreaker.recordCall(request.getUrl(), System.currentTimeMillis() - start, statusCode >= 500);
+            InputStream raw = statusCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+            InputStream body = raw == null
+                    ? new ByteArrayInputStream(new byte[0])
+                    : CompressedTransfer.decode(raw, connection.getContentEncoding(), request.getUrl());
+            try {
+                T result = handler.handle(new DensifyResponse(statusCode, connection::getHeaderField, body));
+                reusable = drain(body);
+                return result;
+            } finally {
+                body.close();
+            }
+        } finally {
+            if (!reusable) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // Reads what is left of a body so the connection goes back to the keep-alive pool
+    private static boolean drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[8192];
+        int drained = 0;
+        int n;
+        while ((n = body.read(buffer)) >= 0) {
+            drained += n;
+            if (drained > DRAIN_LIMIT_BYTES) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
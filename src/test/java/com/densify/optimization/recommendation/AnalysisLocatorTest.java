@@ -0,0 +1,93 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.AmazonWebServicesClientProxy;
+import com.amazonaws.cloudformation.proxy.Logger;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParameterRequest;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParameterResult;
+import com.amazonaws.services.simplesystemsmanagement.model.Parameter;
+import com.amazonaws.services.simplesystemsmanagement.model.PutParameterRequest;
+import com.amazonaws.services.simplesystemsmanagement.model.PutParameterResult;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AnalysisLocatorTest {
+
+    private static final String ACCOUNT = "333333333333";
+
+    private final Logger logger = mock(Logger.class);
+
+    // Every test talks to its own Densify instance, the remembered locations live as long as the class
+    private static DensifyAPI densify(String densifyUrl) {
+        final DensifyAPI densify = mock(DensifyAPI.class);
+        when(densify.getDensifyUrl()).thenReturn(densifyUrl);
+        return densify;
+    }
+
+    private static AmazonWebServicesClientProxy proxyWithStoredLocation(String resultsUrl) {
+        final AmazonWebServicesClientProxy proxy = mock(AmazonWebServicesClientProxy.class);
+        doReturn(new GetParameterResult().withParameter(new Parameter().withValue(resultsUrl)))
+            .when(proxy).injectCredentialsAndInvoke(any(GetParameterRequest.class), any());
+        doReturn(new PutParameterResult())
+            .when(proxy).injectCredentialsAndInvoke(any(PutParameterRequest.class), any());
+        return proxy;
+    }
+
+    @Test
+    public void locate_RemembersLocationInContainer() {
+        final String url = "https://memory.example.com";
+        final DensifyAPI densify = densify(url);
+        when(densify.locateAnalysisResults(eq(ACCOUNT), any())).thenReturn(url + "/analysis/1/results");
+
+        assertThat(AnalysisLocator.locate(densify, ACCOUNT, null, logger)).isEqualTo(url + "/analysis/1/results");
+        assertThat(AnalysisLocator.locate(densify, ACCOUNT, null, logger)).isEqualTo(url + "/analysis/1/results");
+
+        verify(densify, times(1)).locateAnalysisResults(eq(ACCOUNT), any());
+    }
+
+    @Test
+    public void locate_UsesStoredLocationOfSameDensify() {
+        final String url = "https://stored.example.com";
+        final DensifyAPI densify = densify(url);
+        final AmazonWebServicesClientProxy proxy = proxyWithStoredLocation(url + "/analysis/2/results");
+
+        assertThat(AnalysisLocator.locate(densify, ACCOUNT, proxy, logger)).isEqualTo(url + "/analysis/2/results");
+
+        verify(densify, never()).locateAnalysisResults(anyString(), any());
+    }
+
+    @Test
+    public void locate_IgnoresStoredLocationOfOtherDensify() {
+        final String url = "https://current.example.com";
+        final DensifyAPI densify = densify(url);
+        when(densify.locateAnalysisResults(eq(ACCOUNT), any())).thenReturn(url + "/analysis/3/results");
+        final AmazonWebServicesClientProxy proxy = proxyWithStoredLocation("https://previous.example.com/analysis/9/results");
+
+        assertThat(AnalysisLocator.locate(densify, ACCOUNT, proxy, logger)).isEqualTo(url + "/analysis/3/results");
+
+        verify(densify, times(1)).locateAnalysisResults(eq(ACCOUNT), any());
+    }
+
+    @Test
+    public void invalidate_LocatesAgain() {
+        final String url = "https://invalidated.example.com";
+        final DensifyAPI densify = densify(url);
+        when(densify.locateAnalysisResults(eq(ACCOUNT), any()))
+            .thenReturn(url + "/analysis/4/results")
+            .thenReturn(url + "/analysis/5/results");
+
+        assertThat(AnalysisLocator.locate(densify, ACCOUNT, null, logger)).isEqualTo(url + "/analysis/4/results");
+        AnalysisLocator.invalidate(densify, ACCOUNT, null, logger);
+
+        assertThat(AnalysisLocator.locate(densify, ACCOUNT, null, logger)).isEqualTo(url + "/analysis/5/results");
+    }
+}
@@ -0,0 +1,77 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AnalysisResultReaderTest {
+
+    private static final String RESULTS = "[\n"
+            + "  {\"name\": \"web01\", \"entityId\": \"e1\", \"currentType\": \"m4.large\", \"recommendedType\": \"t3.large\","
+            + " \"implementationMethod\": \"Self Optimization\", \"approvalType\": \"all\", \"predictedUptime\": 100,"
+            + " \"savingsEstimate\": 12.5, \"rightsizingCandidate\": true, \"auditInfo\": {\"dataCollection\": {}}},\n"
+            + "  {\"name\": \"web02\", \"entityId\": \"e2\", \"currentType\": \"m4.xlarge\"},\n"
+            + "  {\"name\": \"web03\", \"entityId\": \"e3\", \"currentType\": \"m4.2xlarge\"}\n"
+            + "]";
+
+    private static AnalysisResultReader reader(String body) {
+        return new AnalysisResultReader(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void readAll_KeepsOnlyHandlerFields() {
+        final JSONArray recommendations = reader(RESULTS).readAll(null);
+
+        assertThat(recommendations.length()).isEqualTo(3);
+        final JSONObject first = recommendations.getJSONObject(0);
+        assertThat(first.getString("recommendedType")).isEqualTo("t3.large");
+        assertThat(first.getInt("predictedUptime")).isEqualTo(100);
+        assertThat(first.has("rightsizingCandidate")).isFalse();
+        assertThat(first.has("auditInfo")).isFalse();
+    }
+
+    @Test
+    public void readAll_StopsAtMatch() {
+        final JSONArray recommendations = reader(RESULTS).readAll("web02");
+
+        assertThat(recommendations.length()).isEqualTo(2);
+        assertThat(recommendations.getJSONObject(1).getString("name")).isEqualTo("web02");
+    }
+
+    @Test
+    public void readAll_EmptyAndSingleObject() {
+        assertThat(reader(" [ ] ").readAll(null).length()).isEqualTo(0);
+
+        final JSONArray single = reader("{\"message\": \"not found\", \"status\": 404}").readAll(null);
+        assertThat(single.length()).isEqualTo(1);
+        assertThat(single.getJSONObject(0).getString("message")).isEqualTo("not found");
+    }
+
+    @Test
+    public void pages_SplitsResults() {
+        final Iterator<JSONArray> pages = reader(RESULTS).pages(2);
+
+        assertThat(pages.hasNext()).isTrue();
+        assertThat(pages.next().length()).isEqualTo(2);
+        assertThat(pages.hasNext()).isTrue();
+        assertThat(pages.next().getJSONObject(0).getString("name")).isEqualTo("web03");
+        assertThat(pages.hasNext()).isFalse();
+    }
+
+    @Test
+    public void findPage_KeepsOnlyMatch() {
+        final JSONArray match = Helper.findPage(reader(RESULTS).pages(1), "web02");
+        final JSONArray noMatch = Helper.findPage(reader(RESULTS).pages(2), "web04");
+
+        assertThat(match.length()).isEqualTo(1);
+        assertThat(match.getJSONObject(0).getString("entityId")).isEqualTo("e2");
+        assertThat(noMatch.length()).isEqualTo(1);
+        assertThat(noMatch.getJSONObject(0).getString("name")).isEqualTo("web03");
+    }
+}
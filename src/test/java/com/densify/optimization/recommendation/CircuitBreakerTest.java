@@ -0,0 +1,90 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CircuitBreakerTest {
+
+    @AfterEach
+    public void tearDown() {
+        CircuitBreaker.configure(CircuitBreaker.DEFAULT_FAILURE_RATE_PERCENT, CircuitBreaker.DEFAULT_SLOW_CALL_MILLIS,
+                CircuitBreaker.DEFAULT_OPEN_SECONDS, CircuitBreaker.DEFAULT_WINDOW_SIZE);
+    }
+
+    @Test
+    public void record_OpensWhenFailureRateIsReached() {
+        CircuitBreaker.configure(50, 1000, 60, 10);
+        final CircuitBreaker breaker = new CircuitBreaker();
+
+        for (int i = 0; i < 4; i++) {
+            breaker.record(10, i % 2 == 0);
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        breaker.record(10, true);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.allowRequest()).isFalse();
+    }
+
+    @Test
+    public void record_SlowCallsCountAsFailures() {
+        CircuitBreaker.configure(50, 1000, 60, 10);
+        final CircuitBreaker breaker = new CircuitBreaker();
+
+        for (int i = 0; i < 5; i++) {
+            breaker.record(5000, false);
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void allowRequest_HalfOpenLetsOneTrialThrough() {
+        CircuitBreaker.configure(50, 1000, 0, 5);
+        final CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < 5; i++) {
+            breaker.record(10, true);
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        assertThat(breaker.allowRequest()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        breaker.record(10, false);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.allowRequest()).isTrue();
+    }
+
+    @Test
+    public void record_FailedTrialOpensAgain() {
+        CircuitBreaker.configure(50, 1000, 0, 5);
+        final CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < 5; i++) {
+            breaker.record(10, true);
+        }
+        breaker.allowRequest();
+
+        breaker.record(10, true);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void allowRequest_LogsStateChangeOnce() {
+        CircuitBreaker.configure(50, 1000, 60, 5);
+        final CircuitBreaker breaker = new CircuitBreaker();
+        final Logger logger = mock(Logger.class);
+        for (int i = 0; i < 5; i++) {
+            breaker.record(10, true);
+        }
+
+        assertThat(breaker.allowRequest(logger)).isFalse();
+        assertThat(breaker.allowRequest(logger)).isFalse();
+
+        verify(logger, times(1)).log("Densify circuit changed from CLOSED to OPEN");
+    }
+}
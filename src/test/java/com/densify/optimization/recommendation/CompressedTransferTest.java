@@ -0,0 +1,104 @@
+package com.densify.optimization.recommendation;
+
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressedTransferTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private String requestedEncoding;
+
+    private static String analysis(int systems) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < systems; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"name\": \"web").append(i).append("\", \"entityId\": \"e").append(i)
+                    .append("\", \"currentType\": \"m4.large\", \"recommendedType\": \"t3.large\"}");
+        }
+        return body.append(']').toString();
+    }
+
+    private static byte[] compress(String body, boolean gzip) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = gzip ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes)) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/gzip", exchange -> {
+            requestedEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            byte[] body = compress(analysis(500), true);
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/deflate", exchange -> {
+            byte[] body = compress("{\"status\": 200}", false);
+            exchange.getResponseHeaders().add("Content-Encoding", "deflate");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void getAnalysisRequestHelper_GzipResponse() {
+        final long wireBefore = CompressedTransfer.getTotalWireBytes();
+        final long decodedBefore = CompressedTransfer.getTotalDecodedBytes();
+
+        final AnalysisDownload download = Helper.getAnalysisRequestHelper(baseUrl + "/gzip",
+                ImmutableMap.of("Accept", "application/json"), null, null);
+        final JSONArray recommendations = download.getRecommendations();
+
+        assertThat(requestedEncoding).isEqualTo(CompressedTransfer.ACCEPT_ENCODING);
+        assertThat(recommendations.length()).isEqualTo(500);
+        assertThat(recommendations.getJSONObject(499).getString("name")).isEqualTo("web499");
+        // Sizes of this request alone, as far as the reader got
+        assertThat(download.getWireBytes()).isGreaterThan(0L);
+        assertThat(download.getWireBytes()).isLessThan(download.getDecodedBytes());
+
+        final long wireBytes = CompressedTransfer.getTotalWireBytes() - wireBefore;
+        final long decodedBytes = CompressedTransfer.getTotalDecodedBytes() - decodedBefore;
+        assertThat(decodedBytes).isEqualTo(analysis(500).length());
+        assertThat(wireBytes).isLessThan(decodedBytes);
+    }
+
+    @Test
+    public void getRequestHelper_DeflateResponse() {
+        final JSONArray response = Helper.getRequestHelper(baseUrl + "/deflate", ImmutableMap.of("Accept", "application/json"));
+
+        assertThat(response.length()).isEqualTo(1);
+        assertThat(response.getJSONObject(0).getInt("status")).isEqualTo(200);
+    }
+}
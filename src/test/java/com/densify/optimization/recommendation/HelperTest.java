@@ -0,0 +1,123 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.AmazonWebServicesClientProxy;
+import com.amazonaws.cloudformation.proxy.Logger;
+import com.amazonaws.services.simplesystemsmanagement.model.PutParameterRequest;
+import com.amazonaws.services.simplesystemsmanagement.model.PutParameterResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HelperTest {
+
+    private static JSONObject recommendation(String recommendedType, LocalDateTime timestamp) {
+        return new JSONObject()
+                .put("name", "web01")
+                .put("currentType", "m5.large")
+                .put("recommendedType", recommendedType)
+                .put("savingsEstimate", 12.5)
+                .put("timestamp", timestamp.toString());
+    }
+
+    @Test
+    public void recommendationFingerprint_IgnoresTimestampAndTags() {
+        final JSONObject stored = recommendation("t3.large", LocalDateTime.now().minusHours(1));
+        final JSONObject refreshed = recommendation("t3.large", LocalDateTime.now())
+                .put("tags", new JSONArray().put("Name:web01"));
+
+        assertThat(Helper.recommendationFingerprint(refreshed)).isEqualTo(Helper.recommendationFingerprint(stored));
+        assertThat(Helper.recommendationFingerprint(recommendation("t3.medium", LocalDateTime.now())))
+                .isNotEqualTo(Helper.recommendationFingerprint(stored));
+    }
+
+    @Test
+    public void writeRecommendationIfChanged_SkipsUnchangedRecommendation() {
+        final AmazonWebServicesClientProxy proxy = mock(AmazonWebServicesClientProxy.class);
+        final Logger logger = mock(Logger.class);
+        final String paramName = Helper.getParameterNamePrefix() + "unchanged-test";
+        final LocalDateTime storedAt = LocalDateTime.now().minusSeconds(30);
+        final String stored = recommendation("t3.large", storedAt).toString();
+        final long avoided = Helper.getAvoidedWrites();
+
+        final boolean written = Helper.writeRecommendationIfChanged(paramName,
+                recommendation("t3.large", LocalDateTime.now()), stored, 120, proxy, logger);
+
+        assertThat(written).isFalse();
+        assertThat(Helper.getAvoidedWrites()).isEqualTo(avoided + 1);
+        assertThat(Helper.lastConfirmed(paramName, storedAt.toString(), null).isAfter(storedAt)).isTrue();
+        verify(proxy, never()).injectCredentialsAndInvoke(any(PutParameterRequest.class), any());
+    }
+
+    @Test
+    public void writeRecommendationIfChanged_MarksOldUnchangedRecommendationAsVerified() {
+        final AmazonWebServicesClientProxy proxy = mock(AmazonWebServicesClientProxy.class);
+        final Logger logger = mock(Logger.class);
+        final String paramName = Helper.getParameterNamePrefix() + "verified-test";
+        doReturn(new PutParameterResult())
+                .when(proxy).injectCredentialsAndInvoke(any(PutParameterRequest.class), any());
+
+        final boolean written = Helper.writeRecommendationIfChanged(paramName,
+                recommendation("t3.large", LocalDateTime.now()),
+                recommendation("t3.large", LocalDateTime.now().minusHours(1)).toString(), 120, proxy, logger);
+
+        assertThat(written).isFalse();
+        verify(proxy).injectCredentialsAndInvoke(
+                argThat((PutParameterRequest request) -> request != null
+                        && request.getName().equals(ParameterNamespace.verifiedParamName(paramName))), any());
+    }
+
+    @Test
+    public void lastConfirmed_UsesVerifiedParameter() {
+        final LocalDateTime storedAt = LocalDateTime.now().minusHours(2);
+        final LocalDateTime verified = LocalDateTime.now().minusSeconds(10);
+
+        assertThat(Helper.lastConfirmed("lastConfirmed-test", storedAt.toString(), verified.toString()))
+                .isEqualTo(verified);
+        assertThat(Helper.lastConfirmed("lastConfirmed-test", storedAt.toString(), "not a time")).isEqualTo(storedAt);
+    }
+
+    @Test
+    public void canSkipWrite_WhateverTheAge() {
+        final JSONObject refreshed = recommendation("t3.large", LocalDateTime.now());
+
+        assertThat(Helper.canSkipWrite(recommendation("t3.large", LocalDateTime.now().minusSeconds(30)), refreshed))
+                .isTrue();
+        assertThat(Helper.canSkipWrite(recommendation("t3.large", LocalDateTime.now().minusHours(1)), refreshed))
+                .isTrue();
+        assertThat(Helper.canSkipWrite(recommendation("t3.medium", LocalDateTime.now().minusSeconds(30)), refreshed))
+                .isFalse();
+    }
+
+    @Test
+    public void fetchAnalysis_RelocatesAfterNotFound() {
+        final String url = "https://relocated.example.com";
+        final String account = "444444444444";
+        final Logger logger = mock(Logger.class);
+        final DensifyAPI densify = mock(DensifyAPI.class);
+        when(densify.getDensifyUrl()).thenReturn(url);
+        when(densify.locateAnalysisResults(eq(account), any())).thenReturn(url + "/analysis/new/results");
+        when(densify.downloadAnalysisAt(eq(url + "/analysis/old/results"), any(), any(), any()))
+                .thenReturn(AnalysisDownload.failed(404));
+        when(densify.downloadAnalysisAt(eq(url + "/analysis/new/results"), any(), any(), any()))
+                .thenReturn(AnalysisDownload.of(new JSONArray().put(recommendation("t3.large", LocalDateTime.now())), null));
+
+        final RecommendationCache.Entry analysis = Helper.fetchAnalysis(densify, account, url + "/analysis/old/results",
+                null, null, logger);
+
+        assertThat(analysis).isNotNull();
+        assertThat(analysis.getIndex().matchByName("web01").getString("recommendedType")).isEqualTo("t3.large");
+        assertThat(AnalysisLocator.locate(densify, account, null, logger)).isEqualTo(url + "/analysis/new/results");
+    }
+}
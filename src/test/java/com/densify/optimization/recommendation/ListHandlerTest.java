@@ -1,10 +1,23 @@
 package com.densify.optimization.recommendation;
 
 import com.amazonaws.cloudformation.proxy.AmazonWebServicesClientProxy;
+import com.amazonaws.cloudformation.proxy.HandlerErrorCode;
 import com.amazonaws.cloudformation.proxy.Logger;
 import com.amazonaws.cloudformation.proxy.OperationStatus;
 import com.amazonaws.cloudformation.proxy.ProgressEvent;
 import com.amazonaws.cloudformation.proxy.ResourceHandlerRequest;
+import com.amazonaws.services.securitytoken.model.GetCallerIdentityRequest;
+import com.amazonaws.services.securitytoken.model.GetCallerIdentityResult;
+import com.amazonaws.services.simplesystemsmanagement.model.DescribeParametersRequest;
+import com.amazonaws.services.simplesystemsmanagement.model.DescribeParametersResult;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParametersByPathRequest;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParametersByPathResult;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParametersRequest;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParametersResult;
+import com.amazonaws.services.simplesystemsmanagement.model.InternalServerErrorException;
+import com.amazonaws.services.simplesystemsmanagement.model.Parameter;
+import com.amazonaws.services.simplesystemsmanagement.model.ParameterMetadata;
+import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -12,6 +25,9 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 
 @ExtendWith(MockitoExtension.class)
@@ -51,4 +67,90 @@ public class ListHandlerTest {
         assertThat(response.getMessage()).isNull();
         assertThat(response.getErrorCode()).isNull();
     }
+
+    private static String storedRecommendation(String currentType) {
+        return RecommendationCodec.encode(new JSONObject()
+                .put("currentType", currentType)
+                .put("recommendedType", "t3.medium")
+                .put("implementationMethod", "Self Optimization")
+                .put("approvalType", "all")
+                .put("timestamp", "2026-01-01T00:00:00"));
+    }
+
+    private static ResourceHandlerRequest<ResourceModel> requestWithToken(String nextToken) {
+        return ResourceHandlerRequest.<ResourceModel>builder()
+            .desiredResourceState(ResourceModel.builder().build())
+            .nextToken(nextToken)
+            .build();
+    }
+
+    @Test
+    public void handleRequest_ListsFlatPageAndPassesTokenOn() {
+        final String web01 = Helper.getParameterNamePrefix() + "web01";
+        final String web02 = Helper.getParameterNamePrefix() + "web02";
+        doReturn(new DescribeParametersResult()
+                .withParameters(new ParameterMetadata().withName(web01), new ParameterMetadata().withName(web02))
+                .withNextToken("page2"))
+            .when(proxy).injectCredentialsAndInvoke(any(DescribeParametersRequest.class), any());
+        doReturn(new GetParametersResult()
+                .withParameters(new Parameter().withName(web01).withValue(storedRecommendation("m5.large"))))
+            .when(proxy).injectCredentialsAndInvoke(any(GetParametersRequest.class), any());
+
+        final ProgressEvent<ResourceModel, CallbackContext> response =
+            new ListHandler().handleRequest(proxy, requestWithToken(null), null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getNextToken()).isEqualTo("flat:page2");
+        assertThat(response.getResourceModels().size()).isEqualTo(2);
+        assertThat(response.getResourceModels().get(0).getProvisioningID()).isEqualTo("web01");
+        assertThat(response.getResourceModels().get(0).getInstanceType()).isEqualTo("t3.medium");
+        // Its value could not be read, it is still listed
+        assertThat(response.getResourceModels().get(1).getProvisioningID()).isEqualTo("web02");
+        assertThat(response.getResourceModels().get(1).getInstanceType()).isNull();
+    }
+
+    @Test
+    public void handleRequest_LastFlatPageContinuesWithPath() {
+        doReturn(new DescribeParametersResult().withParameters(new ParameterMetadata[0]))
+            .when(proxy).injectCredentialsAndInvoke(any(DescribeParametersRequest.class), any());
+
+        final ProgressEvent<ResourceModel, CallbackContext> response =
+            new ListHandler().handleRequest(proxy, requestWithToken("flat:page2"), null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getNextToken()).isEqualTo("path:");
+        assertThat(response.getResourceModels().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void handleRequest_ListsPathPage() {
+        doReturn(new GetCallerIdentityResult().withAccount("123456789012"))
+            .when(proxy).injectCredentialsAndInvoke(any(GetCallerIdentityRequest.class), any());
+        final String account = Helper.retrieveAWSAccount(proxy);
+        doReturn(new GetParametersByPathResult()
+                .withParameters(new Parameter().withName(ParameterNamespace.getRecommendationPath(account) + "web03")
+                        .withValue(storedRecommendation("m5.xlarge"))))
+            .when(proxy).injectCredentialsAndInvoke(any(GetParametersByPathRequest.class), any());
+
+        final ProgressEvent<ResourceModel, CallbackContext> response =
+            new ListHandler().handleRequest(proxy, requestWithToken("path:page1"), null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getNextToken()).isNull();
+        assertThat(response.getResourceModels().size()).isEqualTo(1);
+        assertThat(response.getResourceModels().get(0).getProvisioningID()).isEqualTo("web03");
+    }
+
+    @Test
+    public void handleRequest_FailsIfPageCanNotBeListed() {
+        doThrow(new InternalServerErrorException("unavailable"))
+            .when(proxy).injectCredentialsAndInvoke(any(DescribeParametersRequest.class), any());
+
+        final ProgressEvent<ResourceModel, CallbackContext> response =
+            new ListHandler().handleRequest(proxy, requestWithToken("flat:page2"), null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.ServiceInternalError);
+        assertThat(response.getNextToken()).isNull();
+    }
 }
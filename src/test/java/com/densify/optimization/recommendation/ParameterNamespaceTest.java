@@ -0,0 +1,46 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParameterNamespaceTest {
+
+    @Test
+    public void recommendationParamName_FollowsLayout() {
+        assertThat(ParameterNamespace.recommendationParamName("i-0abc", false, "123456789012"))
+                .isEqualTo(Helper.getParameterNamePrefix() + "i-0abc");
+        assertThat(ParameterNamespace.recommendationParamName("i-0abc", true, "123456789012"))
+                .isEqualTo("/densify/123456789012/recommendation/i-0abc");
+    }
+
+    @Test
+    public void isHierarchical_DefaultsToFlat() {
+        assertThat(ParameterNamespace.isHierarchical(new JSONObject())).isFalse();
+        assertThat(ParameterNamespace.isHierarchical(new JSONObject().put("ParameterLayout", "Hierarchical"))).isTrue();
+    }
+
+    @Test
+    public void provisioningIdOf_ReadsBothLayouts() {
+        assertThat(ParameterNamespace.provisioningIdOf("/densify/123456789012/recommendation/i-0abc")).isEqualTo("i-0abc");
+        assertThat(ParameterNamespace.provisioningIdOf(Helper.getParameterNamePrefix() + "i-0abc")).isEqualTo("i-0abc");
+    }
+
+    @Test
+    public void findStored_PrefersConfiguredLayout() {
+        final List<String> candidates = ParameterNamespace.candidateNames("i-0abc", true, "123456789012");
+        final Map<String, String> values = new HashMap<>();
+        values.put(Helper.getParameterNamePrefix() + "i-0abc", "flat");
+
+        assertThat(ParameterNamespace.findStored(candidates, values)).isEqualTo(Helper.getParameterNamePrefix() + "i-0abc");
+
+        values.put("/densify/123456789012/recommendation/i-0abc", "hierarchical");
+        assertThat(ParameterNamespace.findStored(candidates, values)).isEqualTo("/densify/123456789012/recommendation/i-0abc");
+        assertThat(ParameterNamespace.findStored(candidates, new HashMap<>())).isNull();
+    }
+}
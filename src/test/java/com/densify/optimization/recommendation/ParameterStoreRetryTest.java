@@ -0,0 +1,96 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.cloudformation.proxy.Logger;
+import com.amazonaws.services.simplesystemsmanagement.model.ParameterNotFoundException;
+import com.amazonaws.services.simplesystemsmanagement.model.TooManyUpdatesException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ParameterStoreRetryTest {
+
+    private final Logger logger = message -> { };
+
+    @BeforeEach
+    public void setup() {
+        ParameterStoreRetry.beginInvocation();
+    }
+
+    private static AmazonServiceException throttling() {
+        final AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+        e.setErrorCode("ThrottlingException");
+        e.setStatusCode(400);
+        return e;
+    }
+
+    @Test
+    public void isRetryable_ClassifiesErrors() {
+        assertThat(ParameterStoreRetry.isRetryable(throttling())).isTrue();
+        assertThat(ParameterStoreRetry.isRetryable(new TooManyUpdatesException("busy"))).isTrue();
+        assertThat(ParameterStoreRetry.isRetryable(new ParameterNotFoundException("missing"))).isFalse();
+        assertThat(ParameterStoreRetry.isRetryable(new IllegalStateException("bug"))).isFalse();
+    }
+
+    @Test
+    public void call_RetriesThrottledCalls() {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        final String result = ParameterStoreRetry.call("GetParameter", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw throttling();
+            }
+            return "value";
+        }, logger);
+
+        assertThat(result).isEqualTo("value");
+        assertThat(attempts.get()).isEqualTo(3);
+        assertThat(ParameterStoreRetry.getInvocationRetries()).isEqualTo(2);
+    }
+
+    @Test
+    public void call_DoesNotRetryTerminalErrors() {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(ParameterNotFoundException.class, () -> ParameterStoreRetry.call("GetParameter", () -> {
+            attempts.incrementAndGet();
+            throw new ParameterNotFoundException("missing");
+        }, logger));
+        assertThat(attempts.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void call_GivesUpAfterMaxAttempts() {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(AmazonServiceException.class, () -> ParameterStoreRetry.call("PutParameter", () -> {
+            attempts.incrementAndGet();
+            throw throttling();
+        }, logger));
+        assertThat(attempts.get()).isEqualTo(ParameterStoreRetry.MAX_ATTEMPTS);
+    }
+
+    @Test
+    public void withBudget_LimitsSideJobAndKeepsSharedBudget() {
+        final AtomicInteger sideJobAttempts = new AtomicInteger();
+
+        assertThrows(AmazonServiceException.class, () -> ParameterStoreRetry.withBudget(1,
+                () -> ParameterStoreRetry.call("DescribeParameters", () -> {
+                    sideJobAttempts.incrementAndGet();
+                    throw throttling();
+                }, logger)));
+        assertThat(sideJobAttempts.get()).isEqualTo(2);
+
+        // The invocation still has its full budget for the calls after the side job
+        final AtomicInteger attempts = new AtomicInteger();
+        assertThrows(AmazonServiceException.class, () -> ParameterStoreRetry.call("PutParameter", () -> {
+            attempts.incrementAndGet();
+            throw throttling();
+        }, logger));
+        assertThat(attempts.get()).isEqualTo(ParameterStoreRetry.MAX_ATTEMPTS);
+    }
+}
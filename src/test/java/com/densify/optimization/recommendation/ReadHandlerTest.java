@@ -5,14 +5,27 @@ import com.amazonaws.cloudformation.proxy.Logger;
 import com.amazonaws.cloudformation.proxy.OperationStatus;
 import com.amazonaws.cloudformation.proxy.ProgressEvent;
 import com.amazonaws.cloudformation.proxy.ResourceHandlerRequest;
+import com.amazonaws.services.securitytoken.model.GetCallerIdentityRequest;
+import com.amazonaws.services.securitytoken.model.GetCallerIdentityResult;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParametersRequest;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParametersResult;
+import com.amazonaws.services.simplesystemsmanagement.model.Parameter;
+import com.amazonaws.services.simplesystemsmanagement.model.PutParameterRequest;
+import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.LocalDateTime;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
 public class ReadHandlerTest {
@@ -51,4 +64,36 @@ public class ReadHandlerTest {
         assertThat(response.getMessage()).isNull();
         assertThat(response.getErrorCode()).isNull();
     }
+
+    @Test
+    public void handleRequest_VerifiedRecommendationIsFresh() {
+        doReturn(new GetCallerIdentityResult().withAccount("123456789012"))
+            .when(proxy).injectCredentialsAndInvoke(any(GetCallerIdentityRequest.class), any());
+        final String paramName = Helper.getParameterNamePrefix() + "read-verified";
+        // Written two hours ago and confirmed by another container since, no refresh is needed
+        final String stored = RecommendationCodec.encode(new JSONObject()
+                .put("currentType", "m5.large")
+                .put("recommendedType", "t3.large")
+                .put("implementationMethod", "Self Optimization")
+                .put("approvalType", "all")
+                .put("timestamp", LocalDateTime.now().minusHours(2).toString()));
+        doReturn(new GetParametersResult().withParameters(
+                new Parameter().withName(paramName).withValue(stored),
+                new Parameter().withName(ParameterNamespace.verifiedParamName(paramName))
+                        .withValue(LocalDateTime.now().minusSeconds(10).toString())))
+            .when(proxy).injectCredentialsAndInvoke(any(GetParametersRequest.class), any());
+
+        final ResourceModel model = ResourceModel.builder().provisioningID("read-verified").build();
+        final ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+            .desiredResourceState(model)
+            .build();
+
+        final ProgressEvent<ResourceModel, CallbackContext> response
+            = new ReadHandler().handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getMessage()).isEmpty();
+        assertThat(response.getResourceModel().getRecommendedType()).isEqualTo("t3.large");
+        verify(proxy, never()).injectCredentialsAndInvoke(any(PutParameterRequest.class), any());
+    }
 }
@@ -0,0 +1,114 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RecommendationCacheTest {
+
+    private static final String URL = "https://densify.example.com";
+
+    @BeforeEach
+    public void setup() {
+        RecommendationCache.clear();
+        RecommendationCache.configure(RecommendationCache.DEFAULT_TTL_SECONDS, 2, RecommendationCache.DEFAULT_MAX_BYTES);
+    }
+
+    private static JSONArray analysis(String name) {
+        return new JSONArray().put(new JSONObject().put("name", name));
+    }
+
+    @Test
+    public void get_CountsHitsAndMisses() {
+        final long hits = RecommendationCache.getHits();
+        final long misses = RecommendationCache.getMisses();
+
+        assertThat(RecommendationCache.get(URL, "111111111111")).isNull();
+        RecommendationCache.put(URL, "111111111111", analysis("web01"));
+        final RecommendationCache.Entry entry = RecommendationCache.get(URL, "111111111111");
+
+        assertThat(entry).isNotNull();
+        assertThat(entry.getIndex().matchByName("web01")).isNotNull();
+        assertThat(RecommendationCache.getHits()).isEqualTo(hits + 1);
+        assertThat(RecommendationCache.getMisses()).isEqualTo(misses + 1);
+    }
+
+    @Test
+    public void put_EvictsLeastRecentlyUsed() {
+        RecommendationCache.put(URL, "111111111111", analysis("web01"));
+        RecommendationCache.put(URL, "222222222222", analysis("web02"));
+        RecommendationCache.get(URL, "111111111111");
+        RecommendationCache.put(URL, "333333333333", analysis("web03"));
+
+        assertThat(RecommendationCache.get(URL, "222222222222")).isNull();
+        assertThat(RecommendationCache.get(URL, "111111111111")).isNotNull();
+        assertThat(RecommendationCache.get(URL, "333333333333")).isNotNull();
+    }
+
+    @Test
+    public void put_DisabledCacheKeepsNothing() {
+        RecommendationCache.configure(0, 2, RecommendationCache.DEFAULT_MAX_BYTES);
+
+        final RecommendationCache.Entry entry = RecommendationCache.put(URL, "111111111111", analysis("web01"));
+
+        assertThat(entry.getRecommendations().length()).isEqualTo(1);
+        assertThat(RecommendationCache.get(URL, "111111111111")).isNull();
+    }
+
+    @Test
+    public void revalidated_ReusesOutdatedAnalysis() {
+        final AnalysisValidators validators = new AnalysisValidators("\"v1\"", "Tue, 01 Sep 2020 10:00:00 GMT");
+        RecommendationCache.putForRevalidation(URL, "111111111111", analysis("web01"), validators);
+
+        assertThat(RecommendationCache.get(URL, "111111111111")).isNull();
+        final RecommendationCache.Entry previous = RecommendationCache.getForRevalidation(URL, "111111111111");
+        assertThat(previous).isNotNull();
+        final Map<String, String> headers = previous.getValidators().addTo(new HashMap<>());
+        assertThat(headers.get("If-None-Match")).isEqualTo("\"v1\"");
+        assertThat(headers.get("If-Modified-Since")).isEqualTo("Tue, 01 Sep 2020 10:00:00 GMT");
+
+        RecommendationCache.revalidated(URL, "111111111111", previous);
+
+        assertThat(RecommendationCache.get(URL, "111111111111")).isSameAs(previous);
+    }
+
+    @Test
+    public void putForRevalidation_NeedsValidators() {
+        RecommendationCache.putForRevalidation(URL, "111111111111", analysis("web01"), null);
+        RecommendationCache.put(URL, "222222222222", analysis("web02"));
+
+        assertThat(RecommendationCache.getForRevalidation(URL, "111111111111")).isNull();
+        assertThat(RecommendationCache.getForRevalidation(URL, "222222222222")).isNull();
+    }
+
+    @Test
+    public void replace_LeavesHeldEntryUnchanged() {
+        final RecommendationCache.Entry entry = RecommendationCache.put(URL, "111111111111", analysis("web01"));
+        final JSONArray tagged = RecommendationCache.copyOf(entry);
+        tagged.getJSONObject(0).put("tags", new JSONArray().put("Provisioning ID : EC2eg000"));
+
+        final RecommendationCache.Entry replacement = RecommendationCache.replace(entry, tagged);
+
+        assertThat(entry.getRecommendations().getJSONObject(0).has("tags")).isFalse();
+        assertThat(entry.getIndex().matchByTag("EC2eg000")).isNull();
+        assertThat(replacement.getIndex().matchByTag("EC2eg000")).isNotNull();
+        assertThat(replacement.isFullyTagged()).isTrue();
+        assertThat(RecommendationCache.get(URL, "111111111111")).isSameAs(replacement);
+    }
+
+    @Test
+    public void estimateBytes_CountsTwoBytesPerCharacter() {
+        final JSONObject recommendation = new JSONObject().put("name", "web01");
+
+        assertThat(AnalysisResultReader.estimateBytes(recommendation))
+                .isGreaterThanOrEqualTo(2L * ("name".length() + "web01".length()));
+        assertThat(AnalysisResultReader.estimateBytes(new JSONArray().put(recommendation).put(recommendation)))
+                .isGreaterThan(2 * AnalysisResultReader.estimateBytes(recommendation));
+    }
+}
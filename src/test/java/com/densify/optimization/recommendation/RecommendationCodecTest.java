@@ -0,0 +1,64 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RecommendationCodecTest {
+
+    private static JSONObject recommendation() {
+        return new JSONObject()
+                .put("name", "web01")
+                .put("entityId", "a1b2c3")
+                .put("currentType", "m5.large")
+                .put("recommendedType", "t3.large")
+                .put("implementationMethod", "Self Optimization")
+                .put("approvalType", "all")
+                .put("predictedUptime", 99.5)
+                .put("savingsEstimate", 12.5)
+                .put("tags", new JSONArray().put("Name:web01"))
+                .put("timestamp", "2020-01-01T10:00:00");
+    }
+
+    @Test
+    public void encode_KeepsOnlyHandlerFields() {
+        final String encoded = RecommendationCodec.encode(recommendation());
+        final JSONObject decoded = RecommendationCodec.decode(encoded);
+
+        assertThat(encoded).startsWith("[" + RecommendationCodec.VERSION + ",");
+        assertThat(encoded.length()).isLessThan(recommendation().toString().length());
+        assertThat(decoded.getString("currentType")).isEqualTo("m5.large");
+        assertThat(decoded.getString("approvalType")).isEqualTo("all");
+        assertThat(decoded.getString("timestamp")).isEqualTo("2020-01-01T10:00:00");
+        assertThat(decoded.has("tags")).isFalse();
+        assertThat(decoded.has("awsAccount")).isFalse();
+        assertThat(Helper.doRecommendationLogic(decoded)).isEqualTo("t3.large");
+    }
+
+    @Test
+    public void decode_AcceptsLegacyJson() {
+        final JSONObject decoded = RecommendationCodec.decode(recommendation().toString());
+
+        assertThat(decoded.getString("recommendedType")).isEqualTo("t3.large");
+        assertThat(decoded.getString("name")).isEqualTo("web01");
+    }
+
+    @Test
+    public void decode_RejectsUnknownVersionAndMarkers() {
+        assertThrows(JSONException.class, () -> RecommendationCodec.decode("[99,\"m5.large\"]"));
+        assertThrows(JSONException.class, () -> RecommendationCodec.decode("failed to create"));
+    }
+
+    @Test
+    public void fields_CoverRecommendationFields() {
+        // A field added to RecommendationFields is only persisted with a new VERSION and its own field list
+        assertThat(Arrays.asList(RecommendationCodec.FIELDS).containsAll(Arrays.asList(RecommendationFields.RECOMMENDATION)))
+                .isTrue();
+    }
+}
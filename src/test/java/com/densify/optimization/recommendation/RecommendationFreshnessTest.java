@@ -0,0 +1,49 @@
+package com.densify.optimization.recommendation;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RecommendationFreshnessTest {
+
+    private static ResourceModel modelWithPolicy(Integer freshSeconds, Integer staleSeconds) {
+        final FreshnessPolicy policy = new FreshnessPolicy();
+        policy.setFreshSeconds(freshSeconds);
+        policy.setStaleSeconds(staleSeconds);
+        final ResourceModel model = new ResourceModel();
+        model.setFreshnessPolicy(policy);
+        return model;
+    }
+
+    @Test
+    public void of_UsesDefaultsWithoutPolicy() {
+        final ResourceModel model = new ResourceModel();
+
+        assertThat(RecommendationFreshness.of(model, LocalDateTime.now().minusSeconds(60)))
+                .isEqualTo(RecommendationFreshness.State.FRESH);
+        assertThat(RecommendationFreshness.of(model, LocalDateTime.now().minusMinutes(10)))
+                .isEqualTo(RecommendationFreshness.State.STALE);
+        assertThat(RecommendationFreshness.of(model, LocalDateTime.now().minusHours(2)))
+                .isEqualTo(RecommendationFreshness.State.EXPIRED);
+    }
+
+    @Test
+    public void of_FollowsPolicy() {
+        final ResourceModel model = modelWithPolicy(600, 86400);
+
+        assertThat(RecommendationFreshness.of(model, LocalDateTime.now().minusMinutes(5)))
+                .isEqualTo(RecommendationFreshness.State.FRESH);
+        assertThat(RecommendationFreshness.of(model, LocalDateTime.now().minusHours(2)))
+                .isEqualTo(RecommendationFreshness.State.STALE);
+    }
+
+    @Test
+    public void staleSeconds_NeverShorterThanFresh() {
+        assertThat(RecommendationFreshness.staleSeconds(modelWithPolicy(600, 60))).isEqualTo(600);
+        assertThat(RecommendationFreshness.of(modelWithPolicy(600, 60), LocalDateTime.now().minusMinutes(11)))
+                .isEqualTo(RecommendationFreshness.State.EXPIRED);
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RecommendationIndexTest {
+
+    private static JSONObject system(String name, String... tags) {
+        JSONObject recommendation = new JSONObject().put("name", name);
+        if (tags.length > 0) {
+            JSONArray tagArray = new JSONArray();
+            for (String tag : tags) {
+                tagArray.put(tag);
+            }
+            recommendation.put("tags", tagArray);
+        }
+        return recommendation;
+    }
+
+    @Test
+    public void match_ByNameAndTag() {
+        JSONArray recommendations = new JSONArray()
+                .put(system("web01", "Provisioning ID : EC2eg000"))
+                .put(system("web02", "Provisioning ID : EC2eg001"));
+
+        final RecommendationIndex index = RecommendationIndex.build(recommendations);
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.match("web02", RecommendationIndex.MatchStrategy.NAME).getString("name")).isEqualTo("web02");
+        assertThat(index.match("EC2eg000", RecommendationIndex.MatchStrategy.NAME)).isNull();
+        assertThat(index.match("EC2eg000", RecommendationIndex.MatchStrategy.TAG).getString("name")).isEqualTo("web01");
+        assertThat(index.match("web01", RecommendationIndex.MatchStrategy.TAG)).isNull();
+        assertThat(index.match("EC2eg001", RecommendationIndex.MatchStrategy.EITHER).getString("name")).isEqualTo("web02");
+    }
+
+    @Test
+    public void match_DuplicateKeys() {
+        JSONArray recommendations = new JSONArray()
+                .put(system("web01", "Environment : prod"))
+                .put(system("web01", "Environment : prod"));
+
+        final RecommendationIndex index = RecommendationIndex.build(recommendations);
+
+        assertThat(index.getDuplicateNames()).containsExactly("web01");
+        assertThat(index.getDuplicateTags()).contains("prod");
+        assertThat(index.matchByName("web01")).isSameAs(recommendations.getJSONObject(0));
+        assertThat(index.matchByTag("prod")).isNull();
+    }
+
+    @Test
+    public void match_TagKeyWithColons() {
+        JSONArray recommendations = new JSONArray()
+                .put(system("web01", "aws:cloudformation:stack-name : web", "Name:web-a", "Owner=ops"));
+
+        final RecommendationIndex index = RecommendationIndex.build(recommendations);
+
+        assertThat(index.matchByTag("web")).isNotNull();
+        assertThat(index.matchByTag("web-a")).isNotNull();
+        assertThat(index.matchByTag("ops")).isNotNull();
+        assertThat(index.matchByTag("cloudformation:stack-name : web")).isNull();
+    }
+
+    @Test
+    public void matchStrategy_FromString() {
+        assertThat(RecommendationIndex.MatchStrategy.fromString(null)).isEqualTo(RecommendationIndex.MatchStrategy.NAME);
+        assertThat(RecommendationIndex.MatchStrategy.fromString("Either")).isEqualTo(RecommendationIndex.MatchStrategy.EITHER);
+        assertThat(RecommendationIndex.MatchStrategy.fromString("unknown")).isEqualTo(RecommendationIndex.MatchStrategy.NAME);
+    }
+}
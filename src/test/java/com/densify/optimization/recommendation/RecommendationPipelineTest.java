@@ -0,0 +1,144 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.AmazonWebServicesClientProxy;
+import com.amazonaws.cloudformation.proxy.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class RecommendationPipelineTest {
+
+    private static final String URL = "https://pipeline.example.com";
+    private static final String ACCOUNT = "222222222222";
+
+    private final AmazonWebServicesClientProxy proxy = mock(AmazonWebServicesClientProxy.class);
+    private final Logger logger = mock(Logger.class);
+
+    private static JSONObject densifyConnection() {
+        return new JSONObject()
+                .put("DensifyUrl", URL)
+                .put("DensifyUsername", "user")
+                .put("DensifyPassword", "secret");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        RecommendationCache.clear();
+    }
+
+    @Test
+    public void stageOf_StartsWithAuthorize() {
+        assertThat(RecommendationPipeline.stageOf(null)).isEqualTo(RecommendationPipeline.Stage.AUTHORIZE);
+        assertThat(RecommendationPipeline.stageOf(new CallbackContext())).isEqualTo(RecommendationPipeline.Stage.AUTHORIZE);
+    }
+
+    @Test
+    public void advance_CachedAnalysisSkipsToPersist() {
+        RecommendationCache.put(URL, ACCOUNT, new JSONArray().put(new JSONObject()
+                .put("name", "web01")
+                .put("currentType", "m5.large")
+                .put("recommendedType", "t3.large")
+                .put("implementationMethod", "Self Optimization")
+                .put("approvalType", "all")));
+        final ResourceModel model = ResourceModel.builder()
+                .provisioningID("web01")
+                .testAWSAccount(ACCOUNT)
+                .build();
+
+        final CallbackContext context = RecommendationPipeline.advance(null, densifyConnection(), model, proxy, logger);
+
+        assertThat(RecommendationPipeline.stageOf(context)).isEqualTo(RecommendationPipeline.Stage.PERSIST);
+        final JSONObject status = new JSONObject(context.getResult());
+        assertThat(status.getJSONObject("recommendation").getString("recommendedType")).isEqualTo("t3.large");
+        assertThat(status.getString("msg")).isEqualTo("Successfully found matching instance");
+    }
+
+    @Test
+    public void advance_KeepsAwsAccountForLaterStages() {
+        final ResourceModel model = ResourceModel.builder()
+                .provisioningID("web01")
+                .testAWSAccount(ACCOUNT)
+                .build();
+        RecommendationCache.put(URL, ACCOUNT, new JSONArray().put(new JSONObject().put("name", "web01")
+                .put("currentType", "m5.large")));
+
+        final CallbackContext context = RecommendationPipeline.advance(null, densifyConnection(), model, proxy, logger);
+
+        assertThat(context.getAwsAccount()).isEqualTo(ACCOUNT);
+    }
+
+    @Test
+    public void stageOf_UnknownStageStartsOver() {
+        assertThat(RecommendationPipeline.stageOf(CallbackContext.builder().stage("MATCH").build()))
+                .isEqualTo(RecommendationPipeline.Stage.AUTHORIZE);
+    }
+
+    private static CallbackContext persisting(JSONObject recommendation) {
+        return CallbackContext.builder()
+                .stage(RecommendationPipeline.Stage.PERSIST.name())
+                .apiToken("token")
+                .tokenTimestamp("2020-01-01T10:00:00")
+                .result(new JSONObject().put("recommendation", recommendation).put("msg", "matched").toString())
+                .build();
+    }
+
+    private static JSONObject recommendationOf(CallbackContext context) {
+        return new JSONObject(context.getResult()).getJSONObject("recommendation");
+    }
+
+    @Test
+    public void enforceSizeLimit_DropsTagsFirst() {
+        final JSONArray tags = new JSONArray();
+        for (int i = 0; i < 500; i++) {
+            tags.put("Environment:production-" + i);
+        }
+        final CallbackContext context = persisting(
+                new JSONObject().put("name", "web01").put("currentType", "m5.large").put("tags", tags));
+        assertThat(RecommendationPipeline.sizeOf(context)).isGreaterThan(RecommendationPipeline.MAX_CONTEXT_BYTES);
+
+        RecommendationPipeline.enforceSizeLimit(context, ResourceModel.builder().provisioningID("web01").build(), logger);
+
+        assertThat(RecommendationPipeline.sizeOf(context)).isLessThanOrEqualTo(RecommendationPipeline.MAX_CONTEXT_BYTES);
+        assertThat(recommendationOf(context).has("tags")).isFalse();
+        assertThat(recommendationOf(context).getString("name")).isEqualTo("web01");
+        assertThat(context.getApiToken()).isEqualTo("token");
+    }
+
+    @Test
+    public void enforceSizeLimit_KeepsOnlyStoredFields() {
+        final JSONObject recommendation = new JSONObject().put("name", "web01").put("currentType", "m5.large");
+        for (int i = 0; i < 400; i++) {
+            recommendation.put("attribute" + i, "value-" + i);
+        }
+        final CallbackContext context = persisting(recommendation);
+
+        RecommendationPipeline.enforceSizeLimit(context, ResourceModel.builder().provisioningID("web01").build(), logger);
+
+        assertThat(RecommendationPipeline.sizeOf(context)).isLessThanOrEqualTo(RecommendationPipeline.MAX_CONTEXT_BYTES);
+        assertThat(recommendationOf(context).getString("currentType")).isEqualTo("m5.large");
+        assertThat(recommendationOf(context).has("attribute0")).isFalse();
+        assertThat(context.getApiToken()).isEqualTo("token");
+    }
+
+    @Test
+    public void enforceSizeLimit_FallsBackIfStillTooLarge() {
+        final StringBuilder currentType = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            currentType.append("m5.large-");
+        }
+        final CallbackContext context = persisting(new JSONObject().put("currentType", currentType.toString()));
+        final ResourceModel model = ResourceModel.builder().provisioningID("web01").instanceType("m5.large").build();
+
+        RecommendationPipeline.enforceSizeLimit(context, model, logger);
+
+        assertThat(RecommendationPipeline.sizeOf(context)).isLessThanOrEqualTo(RecommendationPipeline.MAX_CONTEXT_BYTES);
+        assertThat(RecommendationPipeline.stageOf(context)).isEqualTo(RecommendationPipeline.Stage.PERSIST);
+        final JSONObject status = new JSONObject(context.getResult());
+        assertThat(status.has("failed")).isTrue();
+        assertThat(status.getJSONObject("recommendation").getString("currentType")).isEqualTo("m5.large");
+    }
+}
@@ -0,0 +1,95 @@
+package com.densify.optimization.recommendation;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RecommendationSnapshotTest {
+
+    private static JSONObject recommendation(int i) {
+        return new JSONObject()
+                .put("name", "web" + i)
+                .put("entityId", "6e1a0b8e-0000-0000-0000-00000000000" + (i % 10))
+                .put("currentType", "m4.large")
+                .put("recommendedType", "t3.medium")
+                .put("implementationMethod", "Self Optimization")
+                .put("approvalType", "all")
+                .put("predictedUptime", 100)
+                .put("savingsEstimate", 42.5)
+                .put("rightsizingCandidate", true);
+    }
+
+    @Test
+    public void encode_KeepsOnlyHandlerFields() {
+        final JSONObject decoded = RecommendationSnapshot.decode(RecommendationSnapshot.encode(recommendation(1)));
+
+        assertThat(decoded.getString("name")).isEqualTo("web1");
+        assertThat(decoded.getString("recommendedType")).isEqualTo("t3.medium");
+        assertThat(decoded.get("savingsEstimate").toString()).isEqualTo("42.5");
+        assertThat(decoded.has("rightsizingCandidate")).isFalse();
+        assertThat(decoded.has("tags")).isFalse();
+    }
+
+    @Test
+    public void buildChunks_RespectsParameterSizeLimit() {
+        JSONArray recommendations = new JSONArray();
+        for (int i = 0; i < 200; i++) {
+            recommendations.put(recommendation(i));
+        }
+
+        final List<String> chunks = RecommendationSnapshot.buildChunks("id", recommendations, 100);
+
+        assertThat(chunks.size()).isGreaterThan(1);
+        int entries = 0;
+        for (String chunk : chunks) {
+            assertThat(chunk.length()).isLessThanOrEqualTo(4096);
+            entries += new JSONObject(chunk).getJSONArray("r").length();
+        }
+        assertThat(entries).isEqualTo(200);
+        assertThat(RecommendationSnapshot.buildChunks("id", recommendations, 1)).isNull();
+    }
+
+    @Test
+    public void buildChunks_KeepsOversizedSystemWithoutTags() {
+        JSONArray tags = new JSONArray();
+        for (int i = 0; i < 200; i++) {
+            tags.put("Owner : team-" + i);
+        }
+        final JSONArray recommendations = new JSONArray()
+                .put(recommendation(1).put("tags", tags))
+                .put(recommendation(2).put("tags", new JSONArray().put("Name : web2")));
+
+        final List<String> chunks = RecommendationSnapshot.buildChunks("id", recommendations, 10);
+
+        assertThat(chunks.size()).isEqualTo(1);
+        final JSONArray entries = new JSONObject(chunks.get(0)).getJSONArray("r");
+        assertThat(entries.length()).isEqualTo(2);
+        assertThat(RecommendationSnapshot.decode(entries.getJSONArray(0)).has("tags")).isFalse();
+        assertThat(RecommendationSnapshot.decode(entries.getJSONArray(1)).has("tags")).isTrue();
+    }
+
+    @Test
+    public void buildChunks_RejectsSystemThatDoesNotFit() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            name.append("web-");
+        }
+        final JSONArray recommendations = new JSONArray()
+                .put(recommendation(1))
+                .put(recommendation(2).put("name", name.toString()));
+
+        assertThat(RecommendationSnapshot.buildChunks("id", recommendations, 10)).isNull();
+    }
+
+    @Test
+    public void fields_CoverAnalysisFields() {
+        // A field added to RecommendationFields is only shared with a new VERSION and its own field list
+        assertThat(Arrays.asList(RecommendationSnapshot.FIELDS).containsAll(Arrays.asList(RecommendationFields.ANALYSIS)))
+                .isTrue();
+    }
+}
@@ -0,0 +1,71 @@
+package com.densify.optimization.recommendation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SingleFlightTest {
+
+    // Waits until count callers joined the running call of key, false if they did not within 5 seconds
+    private static boolean awaitWaiters(SingleFlight<String, ?> flight, String key, int count) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (flight.getWaiters(key) < count) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.yield();
+        }
+        return true;
+    }
+
+    @Test
+    public void execute_WaiterReceivesLeaderFailure() throws Exception {
+        final SingleFlight<String, String> flight = new SingleFlight<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> leader = executor.submit(() -> flight.execute("key", () -> {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("download failed");
+            }));
+            started.await(5, TimeUnit.SECONDS);
+            final Future<String> waiter = executor.submit(() -> flight.execute("key", () -> "not called"));
+            assertThat(awaitWaiters(flight, "key", 1)).isTrue();
+            release.countDown();
+
+            final Exception leaderFailure = assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+            final Exception waiterFailure = assertThrows(Exception.class, () -> waiter.get(5, TimeUnit.SECONDS));
+            assertThat(leaderFailure.getCause()).isInstanceOf(IllegalStateException.class);
+            assertThat(waiterFailure.getCause()).isInstanceOf(IllegalStateException.class);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void execute_FailureIsNotRemembered() {
+        final SingleFlight<String, String> flight = new SingleFlight<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> flight.execute("key", () -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("download failed");
+        }));
+        assertThat(flight.isInFlight("key")).isFalse();
+        assertThat(flight.execute("key", () -> "value-" + calls.incrementAndGet())).isEqualTo("value-2");
+    }
+}
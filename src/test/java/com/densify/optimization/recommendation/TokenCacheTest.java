@@ -0,0 +1,78 @@
+package com.densify.optimization.recommendation;
+
+import com.amazonaws.cloudformation.proxy.Logger;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TokenCacheTest {
+
+    private final Logger logger = message -> { };
+
+    @Test
+    public void get_ReturnsOnlyValidTokens() {
+        final String url = "https://valid.example.com";
+        TokenCache.put(url, "user", new TokenCache.Token("old", LocalDateTime.now().minusMinutes(10)));
+        assertThat(TokenCache.get(url, "user")).isNull();
+
+        TokenCache.put(url, "user", new TokenCache.Token("new", LocalDateTime.now()));
+        assertThat(TokenCache.get(url, "user").getValue()).isEqualTo("new");
+        assertThat(TokenCache.get(url, "other")).isNull();
+    }
+
+    @Test
+    public void put_KeepsNewerToken() {
+        final String url = "https://newer.example.com";
+        TokenCache.put(url, "user", new TokenCache.Token("newer", LocalDateTime.now()));
+        TokenCache.put(url, "user", new TokenCache.Token("older", LocalDateTime.now().minusMinutes(1)));
+
+        assertThat(TokenCache.get(url, "user").getValue()).isEqualTo("newer");
+    }
+
+    @Test
+    public void refresh_FailedAuthorizationIsNotCached() {
+        final String url = "https://failed.example.com";
+        final JSONObject failure = new JSONObject().put("status", 401).put("message", "denied");
+
+        assertThat(TokenCache.refresh(url, "user", log -> failure, 0, logger)).isNull();
+        assertThat(TokenCache.get(url, "user")).isNull();
+    }
+
+    @Test
+    public void refresh_ConcurrentCallersShareOneAuthorization() throws Exception {
+        final String url = "https://shared.example.com";
+        final AtomicInteger calls = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<TokenCache.Token>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> TokenCache.refresh(url, "user", log -> {
+                    calls.incrementAndGet();
+                    // The authorization finishes only once the other three callers joined it
+                    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                    while (TokenCache.getWaitingRefreshes(url, "user") < 3 && System.nanoTime() < deadline) {
+                        Thread.yield();
+                    }
+                    return new JSONObject().put("status", 200).put("apiToken", "token-" + calls.get());
+                }, 0, logger)));
+            }
+
+            for (Future<TokenCache.Token> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS).getValue()).isEqualTo("token-1");
+            }
+            assertThat(calls.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}